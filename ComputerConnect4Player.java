@@ -1,38 +1,882 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class ComputerConnect4Player extends Player {
-	private int depth;  // depth to search at
+	private int depth;  // depth to search at (deepest iteration when on a time budget)
+	private long timeBudget; // milliseconds per move, 0 to always search to depth
+	private Connect4TranspositionTable table; // results kept between subtrees and moves
 
-	// my weights
-	// need to be public/package for testing static evaluation func in Connect4Game.java
-	public static final int[] HOW_GOOD = {0, 2, 10^2, 10^3, 10^8}; // index is # of unblocked four-in-row potentials
+	private long nodes; // positions searched by the last getMove
+	private int depthReached; // depth of the last completed search
+
+	// more counters for the last getMove, plain longs so that they cost next to nothing
+	private long leafEvaluations;
+	private long cutoffs;
+	private long firstMoveCutoffs; // cutoffs by the first move tried at a node
+	private long tableProbes;
+	private long tableHits;
+
+	private Connect4SearchStats lastStats; // what the last move cost
+	private final Connect4SearchMetrics metrics; // totals over all moves
+
+	// deadline of the current search, checked every CHECK_INTERVAL nodes
+	private static final int CHECK_INTERVAL = 1024;
+	private long deadline;
+	private boolean outOfTime;
+
+	// Lazy SMP: helpers search the same root on their own threads and only
+	// share results through the table; the move comes from this player's search
+	private ComputerConnect4Player[] helpers = new ComputerConnect4Player[0];
+	private ExecutorService helperPool;
+	private volatile boolean stopped; // set when a helper should abandon its search
+
+	// pondering: after moving, a background search of the position after the
+	// reply we expect, filling the table while the opponent thinks
+	private ComputerConnect4Player ponderer; // null when not pondering
+	private ExecutorService ponderPool;
+	private Future<?> ponderSearch; // running ponder search, null if none
+	private long ponderKey; // key of the position being pondered
+	private int ponderDepth = -1; // depth pondered on the position of the last getMove, -1 if the guess was wrong
+
+	// per-ply scratch space for move ordering, indexed by moves played,
+	// so the search allocates nothing per node (big enough for any board size)
+	private final int[][] orderBuffer = new int[Connect4BoardSize.MAX_SLOTS + 1][Connect4BoardSize.MAX_COLUMNS];
+	private final int[][] valueBuffer = new int[Connect4BoardSize.MAX_SLOTS + 1][Connect4BoardSize.MAX_COLUMNS];
+
+	private final Connect4MoveOrdering ordering = new Connect4MoveOrdering(); // killers and history
+
+	// the game as of the last getMove, brought up to date move by move
+	// instead of being copied (and evaluated) from scratch every time
+	private Connect4BitBoard context;
+
+	// principal variation of the last search, by moves played: the position
+	// key and the move to try first there when the table has lost it
+	private final long[] pvKeys = new long[Connect4BoardSize.MAX_SLOTS + 1];
+	private final int[] pvMoves = new int[Connect4BoardSize.MAX_SLOTS + 1];
+	private final int[] pvEvals = new int[Connect4BoardSize.MAX_SLOTS + 1];
+
+	// told about every step of the search, null when nobody is tracing
+	private Connect4SearchListener listener;
 
-	// the closer a piece is to the center, the more 4-in-row permutations available.
-	// i.e.., generally center piece is most valuable
-	private static final int[] movesByCol = { 3, 4, 2, 5, 1, 6, 0 }; 
+	// solve exactly instead of searching once this few slots are left
+	private int solverThreshold = 0;
+	private Connect4Solver solver; // made when first needed, for the size of board being played
+
+	private Connect4OpeningBook book; // consulted before searching, null for none
+	private Connect4EndgameDatabase endgame; // exact values late in the game, null for none
+
+	// results shared with other processes and runs through a file, null for none;
+	// probed and written only this deep or deeper, where a search costs more than a lookup
+	private Connect4PositionStore store;
+	private int storeDepth;
+	private boolean storeScoring; // the store was searched with my evaluator
+	private boolean storeActive; // and is for the board of the current search
+
+	private Connect4Evaluator evaluator = new Connect4WindowEvaluator(); // scores the leaves
+
+	/**
+	 * How the root of the search is driven. All give the same score at the same depth.
+	 */
+	public enum Driver {
+		ALPHA_BETA, // full window at every node
+		PVS,        // principal variation search: null-window scouts after the first move
+		MTDF        // MTD(f): a series of null-window searches at the root, over the table
+	}
+
+	private Driver driver = Driver.ALPHA_BETA;
+	private int lastValue; // value of the last root search, MTD(f)'s first guess
+
+	// my weights (Connect4Weights.DEFAULT; setEvaluator can use others)
+	// need to be public/package for testing static evaluation func in Connect4Game.java
+	public static final int[] HOW_GOOD = {0, 2, 100, 1000, 100000000}; // index is # of unblocked four-in-row potentials
 
 	/**
 	 * Create a computer player with a given name
 	 * @param name name of computer player
+	 * @param depth depth to search at
 	 */
 	public ComputerConnect4Player(String name, int depth){
+		this(name, depth, new Connect4TranspositionTable());
+	}
+
+	/**
+	 * Create a computer player with its own transposition table
+	 * @param name name of computer player
+	 * @param depth depth to search at
+	 * @param table table to cache search results in
+	 */
+	public ComputerConnect4Player(String name, int depth, Connect4TranspositionTable table){
+		this(name, depth, 0, table);
+	}
+
+	/**
+	 * Create a computer player that searches deeper and deeper until its time is up
+	 * @param name name of computer player
+	 * @param maxDepth deepest search to try
+	 * @param timeBudget milliseconds to spend on each move, 0 to always search to maxDepth
+	 * @param table table to cache search results in
+	 */
+	public ComputerConnect4Player(String name, int maxDepth, long timeBudget, Connect4TranspositionTable table){
 		super(name);
+		this.depth = maxDepth;
+		this.timeBudget = timeBudget;
+		this.table = table;
+		this.metrics = new Connect4SearchMetrics(name);
+
+		Arrays.fill(pvMoves, -1);
+	}
+
+	/**
+	 * Sets the number of threads used to search each move.
+	 * All threads share this player's transposition table.
+	 * @param threads number of search threads, at least 1
+	 */
+	public void setThreads(int threads){
+		if (threads < 1){
+			throw new IllegalArgumentException("Need at least one search thread");
+		}
+
+		if (helperPool != null){
+			helperPool.shutdownNow();
+			helperPool = null;
+		}
+
+		helpers = new ComputerConnect4Player[threads - 1];
+		for (int i = 0; i < helpers.length; i++){
+			helpers[i] = new ComputerConnect4Player(getName(), depth, timeBudget, table);
+			helpers[i].evaluator = evaluator;
+			helpers[i].driver = driver;
+			helpers[i].store = store;
+			helpers[i].endgame = endgame;
+			helpers[i].storeDepth = storeDepth;
+			helpers[i].storeScoring = storeScoring;
+		}
+
+		if (helpers.length > 0){
+			helperPool = Executors.newFixedThreadPool(helpers.length, runnable -> {
+				Thread thread = new Thread(runnable, getName() + " search helper");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Changes how far getMove searches, so that one player (and its table)
+	 * can be reused for searches of different sizes
+	 * @param depth depth to search at (deepest iteration when on a time budget)
+	 * @param timeBudget milliseconds to spend on each move, 0 to always search to depth
+	 */
+	public void setLimits(int depth, long timeBudget){
 		this.depth = depth;
+		this.timeBudget = timeBudget;
+
+		for (ComputerConnect4Player helper : helpers){
+			helper.depth = depth;
+			helper.timeBudget = timeBudget;
+		}
+		if (ponderer != null){
+			ponderer.depth = depth;
+			ponderer.timeBudget = timeBudget;
+		}
+	}
+
+	/**
+	 * Search on the opponent's time: after each move, search the position
+	 * after the reply the table expects until the opponent moves. If the
+	 * guess was right the next getMove finds the work in the shared table;
+	 * if not, the ponder search is simply stopped.
+	 * @param on true to ponder
+	 */
+	public void setPondering(boolean on){
+		if (on && ponderer == null){
+			ponderer = new ComputerConnect4Player(getName(), depth, timeBudget, table);
+			ponderer.evaluator = evaluator;
+			ponderer.driver = driver;
+			ponderer.store = store;
+			ponderer.storeDepth = storeDepth;
+			ponderer.storeScoring = storeScoring;
+			ponderer.endgame = endgame;
+
+			ponderPool = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, getName() + " ponder");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else if (!on && ponderer != null){
+			stopPondering();
+			ponderPool.shutdownNow();
+			ponderPool = null;
+			ponderer = null;
+		}
+	}
+
+	/**
+	 * Stop the ponder search, if there is one (e.g. when the game is over)
+	 */
+	public void stopPondering(){
+		stopPondering(0);
+	}
+
+	/**
+	 * Forget the game so far: the table, killers and history, principal
+	 * variation and the position of the last getMove. The next getMove then
+	 * searches as a new player would, whatever was searched before it; the
+	 * settings and metrics are kept.
+	 */
+	public void newGame(){
+		stopPondering();
+		table.clear();
+
+		for (ComputerConnect4Player player : helpers){
+			player.forgetGame();
+		}
+		forgetGame();
+	}
+
+	/**
+	 * Forget what this player (not its table) kept from the last search
+	 */
+	private void forgetGame(){
+		context = null;
+		lastValue = 0;
+		ordering.clear();
+		Arrays.fill(pvKeys, 0);
+		Arrays.fill(pvMoves, 0);
+		Arrays.fill(pvEvals, 0);
+	}
+
+	/**
+	 * Gets how deep the position of the last getMove had been pondered
+	 * @return the completed ponder depth, -1 if it wasn't the pondered position
+	 */
+	public int getPonderDepth(){
+		return ponderDepth;
+	}
+
+	/**
+	 * Gets the number of threads used to search each move
+	 * @return the thread count
+	 */
+	public int getThreads(){
+		return helpers.length + 1;
+	}
+
+	/**
+	 * Sets a listener to trace the search (helper threads are not traced)
+	 * @param listener the listener, or null to stop tracing
+	 */
+	public void setSearchListener(Connect4SearchListener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Play endgames perfectly: once no more than the given number of slots
+	 * are empty, getMove solves the position to the end of the game
+	 * instead of searching it to depth. (Only on boards that fit in one long,
+	 * as the solver needs.)
+	 * @param emptySlots most empty slots to solve at, 0 to never solve
+	 */
+	public void setSolverThreshold(int emptySlots){
+		solverThreshold = emptySlots;
+	}
+
+	/**
+	 * Sets the evaluation used at the leaves of the search.
+	 * Clear the table if it holds results from a different evaluator.
+	 * @param evaluator the evaluator
+	 */
+	public void setEvaluator(Connect4Evaluator evaluator){
+		this.evaluator = evaluator;
+
+		for (ComputerConnect4Player helper : helpers){
+			helper.evaluator = evaluator;
+		}
+		if (ponderer != null){
+			ponderer.evaluator = evaluator;
+		}
+		setPositionStore(store, storeDepth);
+	}
+
+	/**
+	 * Sets how the root of the search is driven
+	 * @param driver ALPHA_BETA, PVS or MTDF
+	 */
+	public void setDriver(Driver driver){
+		this.driver = driver;
+
+		for (ComputerConnect4Player helper : helpers){
+			helper.driver = driver;
+		}
+		if (ponderer != null){
+			ponderer.driver = driver;
+		}
+	}
+
+	/**
+	 * Play from an opening book when the position is in it (the book is for
+	 * the standard board; games on other boards always search)
+	 * @param book the book, or null to always search
+	 */
+	public void setOpeningBook(Connect4OpeningBook book){
+		this.book = book;
+	}
+
+	/**
+	 * Play from an endgame database once the position is in it, and take
+	 * the values of positions in it instead of searching them (only on the
+	 * database's board size)
+	 * @param database the database, or null to always search
+	 */
+	public void setEndgameDatabase(Connect4EndgameDatabase database){
+		this.endgame = database;
+
+		for (ComputerConnect4Player helper : helpers){
+			helper.endgame = database;
+		}
+		if (ponderer != null){
+			ponderer.endgame = database;
+		}
+	}
+
+	/**
+	 * Share search results through a position store: searches of this
+	 * depth or deeper look the position up there when the table doesn't
+	 * settle it, and write their results back. The store is only used while
+	 * it is for the board being played and this player's evaluator, and
+	 * may be shared with other players and processes.
+	 * @param store the store, or null for none
+	 * @param minDepth the shallowest search that uses the store
+	 */
+	public void setPositionStore(Connect4PositionStore store, int minDepth){
+		this.store = store;
+		this.storeDepth = minDepth;
+		this.storeScoring = store != null && store.getScoring() == Connect4PositionStore.scoring(evaluator);
+
+		for (ComputerConnect4Player helper : helpers){
+			helper.store = store;
+			helper.storeDepth = minDepth;
+			helper.storeScoring = storeScoring;
+		}
+		if (ponderer != null){
+			ponderer.store = store;
+			ponderer.storeDepth = minDepth;
+			ponderer.storeScoring = storeScoring;
+		}
+	}
+
+	/**
+	 * Gets the position store
+	 * @return the store, null if none
+	 */
+	public Connect4PositionStore getPositionStore(){
+		return store;
+	}
+
+	/**
+	 * Gets the transposition table, with its hit statistics
+	 * @return the table
+	 */
+	public Connect4TranspositionTable getTable(){
+		return table;
+	}
+
+	/**
+	 * Gets the number of positions searched for the last move, by all threads
+	 * @return the node count
+	 */
+	public long getNodeCount(){
+		return nodes;
+	}
+
+	/**
+	 * Gets the depth of the last completed search
+	 * @return the depth reached
+	 */
+	public int getDepthReached(){
+		return depthReached;
+	}
+
+	/**
+	 * Gets the value of the last completed search, from the view of the
+	 * player to move (not set by book or solver moves)
+	 * @return the value
+	 */
+	public int getLastValue(){
+		return lastValue;
+	}
+
+	/**
+	 * Gets the statistics of the last move chosen by getMove
+	 * @return the statistics, null before the first move
+	 */
+	public Connect4SearchStats getLastStats(){
+		return lastStats;
+	}
+
+	/**
+	 * Gets the totals over every move chosen by getMove, which can be
+	 * registered with JMX or exported as text
+	 * @return the metrics
+	 */
+	public Connect4SearchMetrics getMetrics(){
+		return metrics;
 	}
 
 	@Override
 	public int getMove(Connect4State state, Connect4View view) {
-		// First copy the game instance
-		Connect4Game stateCopy = new Connect4Game(state.getPlayerNum(), state.getPlayers(), state.getBoard(), evaluate(state), movesDone(state));
+		// Bring our bitboard copy of the game up to date with the moves played
+		// since the last call; copy the game only if it isn't the same game
+		boolean sameGame = context != null && context.getWeights() == evaluator.getWeights() && context.catchUp(state);
+		if (!sameGame){
+			context = new Connect4BitBoard(state, evaluator.getWeights());
+		}
+		Connect4BitBoard stateCopy = context;
+
+		// the opponent has moved: stop pondering, keeping what it put in the table
+		ponderDepth = stopPondering(stateCopy.getKey());
 
 		// pick the move
-		// start alpha-beta with neg and pos infinities
-		Connect4Move chosenMoveObj = pickMove(stateCopy, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE, view);
-		int chosenMove = chosenMoveObj.move;
+		long start = System.nanoTime();
+		resetCounters();
+		outOfTime = false;
+
+		// the table and history carry over from the last move: older table entries
+		// give way to new ones, history counts half; killers are for other positions
+		table.newSearch();
+		ordering.clearKillers();
+		ordering.age();
+
+		Connect4BoardSize size = stateCopy.getSize();
+		Connect4Move bookMove = (book == null || !size.isStandard()) ? null : book.lookup(stateCopy.getCanonicalKey());
+		int bookColumn = (bookMove == null) ? -1 : stateCopy.canonicalMove(bookMove.move);
+		if (bookColumn >= 0 && stateCopy.isValidMove(bookColumn)){
+			finishMove(Connect4SearchStats.BOOK, 0, start);
+			view.reportMove(bookColumn, state.getPlayerToMove().getName());
+			return bookColumn;
+		}
+
+		int emptySlots = size.getSlots() - stateCopy.getMovesPlayed();
+		if (endgame != null && endgame.covers(stateCopy)){
+			int endgameMove = endgameMove(stateCopy);
+			finishMove(Connect4SearchStats.ENDGAME, emptySlots, start);
+
+			view.reportMove(endgameMove, state.getPlayerToMove().getName());
+			return endgameMove;
+		}
+
+		if (emptySlots <= solverThreshold && size.fitsOneLong()){
+			if (solver == null || solver.getSize() != size){
+				solver = new Connect4Solver(size);
+			}
+
+			int solvedMove = solver.solve(stateCopy.getCurrent(), stateCopy.getMask(), stateCopy.getMovesPlayed()).move;
+			nodes = solver.getNodeCount();
+			finishMove(Connect4SearchStats.SOLVER, emptySlots, start);
+
+			view.reportMove(solvedMove, state.getPlayerToMove().getName());
+			return solvedMove;
+		}
+
+		Future<?>[] helperSearches = startHelpers(stateCopy);
+
+		long chosenMoveObj;
+		if (timeBudget <= 0){
+			deadline = Long.MAX_VALUE;
+
+			// our last search in this game looked at this position from our side,
+			// so its value should be close (MTD(f) uses it as its first guess anyway)
+			if (sameGame && driver != Driver.MTDF){
+				chosenMoveObj = aspirationSearch(stateCopy, depth, lastValue);
+			} else {
+				chosenMoveObj = searchRoot(stateCopy, depth);
+			}
+			depthReached = depth;
+		} else {
+			chosenMoveObj = deepenUntilDeadline(stateCopy);
+		}
+		int chosenMove = moveOf(chosenMoveObj);
+
+		stopHelpers(helperSearches);
+		finishMove(Connect4SearchStats.SEARCH, depthReached, start);
+
+		savePrincipalVariation(stateCopy);
+		if (ponderer != null){
+			startPondering(new Connect4BitBoard(stateCopy), chosenMove);
+		}
 
 		view.reportMove(chosenMove, state.getPlayerToMove().getName());
 
 		return chosenMove;
 	} 
 
+	/**
+	 * Zero the search counters
+	 */
+	private void resetCounters(){
+		nodes = 0;
+		leafEvaluations = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		tableProbes = 0;
+		tableHits = 0;
+	}
+
+	/**
+	 * Keep the statistics of the move just chosen, and add them to the totals
+	 *
+	 * @param source where the move came from
+	 * @param depth depth of the search that chose it
+	 * @param start System.nanoTime() when getMove started
+	 */
+	private void finishMove(String source, int depth, long start){
+		lastStats = new Connect4SearchStats(source, nodes, leafEvaluations, cutoffs, firstMoveCutoffs,
+				tableProbes, tableHits, depth, System.nanoTime() - start);
+		metrics.record(lastStats);
+	}
+
+	/**
+	 * Remember the line of play the table expects from a position, so that
+	 * the next search can try those moves first even if the table has
+	 * replaced their entries by then
+	 *
+	 * @param state the position searched (left unchanged)
+	 */
+	private void savePrincipalVariation(Connect4BitBoard state){
+		int start = state.getMovesPlayed();
+		int ply = start;
+
+		while (!state.gameIsOver()){
+			long entry = table.probe(state.getCanonicalKey());
+			int move = state.canonicalMove(Connect4TranspositionTable.move(entry));
+
+			if (entry == Connect4TranspositionTable.MISS || move < 0 || !state.isValidMove(move)){
+				break;
+			}
+
+			pvKeys[ply] = state.getKey();
+			pvMoves[ply] = move;
+			pvEvals[ply] = state.grabEvalValue();
+			state.makeMove(move);
+			ply++;
+		}
+
+		while (ply > start){
+			ply--;
+			state.undoMove(pvMoves[ply], pvEvals[ply]);
+		}
+	}
+
+	/**
+	 * Start pondering the position after a move and the reply the table
+	 * expects to it
+	 *
+	 * @param state the position before the move (taken over by the ponder search)
+	 * @param move the move just chosen
+	 */
+	private void startPondering(Connect4BitBoard state, int move){
+		if (ponderer == null){
+			return;
+		}
+
+		state.makeMove(move);
+		if (state.gameIsOver()){
+			return;
+		}
+
+		long entry = table.probe(state.getCanonicalKey());
+		int reply = state.canonicalMove(Connect4TranspositionTable.move(entry));
+		if (entry == Connect4TranspositionTable.MISS || reply < 0 || !state.isValidMove(reply)){
+			return; // no idea what the opponent will play
+		}
+
+		state.makeMove(reply);
+		if (state.gameIsOver()){
+			return;
+		}
+
+		ponderKey = state.getKey();
+		ponderer.stopped = false;
+		ponderSearch = ponderPool.submit(() -> ponderer.helpSearch(state, 0));
+	}
+
+	/**
+	 * Stop the ponder search and wait for it to finish
+	 *
+	 * @param key the position now to be searched
+	 * @return the depth pondered if that position was the one pondered, otherwise -1
+	 */
+	private int stopPondering(long key){
+		if (ponderSearch == null){
+			return -1;
+		}
+
+		ponderer.stopped = true;
+		try {
+			ponderSearch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Ponder search failed", e.getCause());
+		} finally {
+			ponderSearch = null;
+		}
+
+		return (key == ponderKey) ? ponderer.depthReached : -1;
+	}
+
+	/**
+	 * Start the helper threads on their own copies of the position.
+	 * Every other helper looks one move deeper so that the threads spread
+	 * out over the tree instead of all searching the same nodes.
+	 *
+	 * @param state the position to search
+	 * @return the running helper searches
+	 */
+	private Future<?>[] startHelpers(Connect4BitBoard state){
+		Future<?>[] searches = new Future<?>[helpers.length];
+
+		for (int i = 0; i < helpers.length; i++){
+			ComputerConnect4Player helper = helpers[i];
+			Connect4BitBoard helperState = new Connect4BitBoard(state);
+			int extraDepth = (i + 1) % 2;
+
+			helper.stopped = false;
+			searches[i] = helperPool.submit(() -> helper.helpSearch(helperState, extraDepth));
+		}
+
+		return searches;
+	}
+
+	/**
+	 * Stop the helper threads and add their work to the counters
+	 *
+	 * @param searches the running helper searches
+	 */
+	private void stopHelpers(Future<?>[] searches){
+		for (int i = 0; i < searches.length; i++){
+			helpers[i].stopped = true;
+		}
+
+		for (int i = 0; i < searches.length; i++){
+			try {
+				searches[i].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Search helper failed", e.getCause());
+			}
+
+			nodes += helpers[i].nodes;
+			leafEvaluations += helpers[i].leafEvaluations;
+			cutoffs += helpers[i].cutoffs;
+			firstMoveCutoffs += helpers[i].firstMoveCutoffs;
+			tableProbes += helpers[i].tableProbes;
+			tableHits += helpers[i].tableHits;
+		}
+	}
+
+	/**
+	 * A helper's (or the ponderer's) search: deepen one iteration at a time,
+	 * filling the shared table, until told to stop or out of depth
+	 *
+	 * @param state the helper's own copy of the position
+	 * @param extraDepth how much deeper than the main search to go
+	 */
+	private void helpSearch(Connect4BitBoard state, int extraDepth){
+		resetCounters();
+		outOfTime = false;
+		deadline = Long.MAX_VALUE;
+		depthReached = -1;
+
+		ordering.clearKillers();
+		ordering.age();
+
+		int maxDepth = Math.min(depth + extraDepth, state.getSize().getSlots() - state.getMovesPlayed() - 1);
+		for (int iteration = 0; iteration <= maxDepth && !outOfTime; iteration++){
+			searchRoot(state, iteration);
+
+			if (!outOfTime){
+				depthReached = iteration;
+			}
+		}
+	}
+
+	/**
+	 * Iterative deepening: search at depth 0, 1, 2, ... until the time budget
+	 * runs out, and keep the result of the deepest search that finished.
+	 * Each iteration tries the previous best move first because it is the
+	 * best move stored in the table for the root.
+	 *
+	 * @param state the current state of the game
+	 * @return the packed (value, move) result
+	 */
+	private long deepenUntilDeadline(Connect4BitBoard state){
+		// no point searching past the end of the game
+		int maxDepth = Math.min(depth, state.getSize().getSlots() - state.getMovesPlayed() - 1);
+
+		// the first iteration always finishes so that there is a move to play
+		deadline = Long.MAX_VALUE;
+		long bestMove = searchRoot(state, 0);
+		depthReached = 0;
+
+		deadline = System.nanoTime() + timeBudget * 1000000L;
+		for (int iteration = 1; iteration <= maxDepth; iteration++){
+			long currentMove = searchRoot(state, iteration);
+
+			if (outOfTime){
+				break; // unfinished iteration, keep the last one
+			}
+
+			bestMove = currentMove;
+			depthReached = iteration;
+		}
+
+		return bestMove;
+	}
+
+	/**
+	 * Search a position at a fixed depth, outside of getMove.
+	 * Allocates nothing once the player has been used for a search.
+	 *
+	 * @param state the position to search (left unchanged)
+	 * @param depth the number of moves to look ahead in game tree search
+	 * @return the packed (value, move) result, see valueOf and moveOf
+	 */
+	public long search(Connect4BitBoard state, int depth){
+		resetCounters();
+		outOfTime = false;
+		deadline = Long.MAX_VALUE;
+
+		return searchRoot(state, depth);
+	}
+
+	/**
+	 * Search the root with the chosen driver
+	 *
+	 * @param state the position to search
+	 * @param depth the number of moves to look ahead in game tree search
+	 * @return the packed (value, move) result
+	 */
+	private long searchRoot(Connect4BitBoard state, int depth){
+		long result;
+		storeActive = storeScoring && store.getSize() == state.getSize();
+
+		if (driver == Driver.MTDF){
+			result = mtdf(state, depth, lastValue);
+		} else {
+			// start alpha-beta with neg and pos infinities
+			result = pickMove(state, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
+
+		if (!outOfTime){
+			lastValue = valueOf(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Search the root with a narrow window around a guess at its value,
+	 * which cuts off more of the tree, and search again with the full
+	 * window if the value falls outside it. The window is as wide as one
+	 * three-in-row window's weight, which is about how far the value moves
+	 * from one of our moves to the next.
+	 *
+	 * @param state the position to search
+	 * @param depth the number of moves to look ahead in game tree search
+	 * @param guess the expected value
+	 * @return the packed (value, move) result
+	 */
+	private long aspirationSearch(Connect4BitBoard state, int depth, int guess){
+		storeActive = storeScoring && store.getSize() == state.getSize();
+		int window = evaluator.getWeights().get(3);
+		int low = guess - window;
+		int high = guess + window;
+
+		long result = pickMove(state, depth, low, high);
+		int value = valueOf(result);
+
+		if (!outOfTime && (value <= low || value >= high)){
+			// only a bound: start alpha-beta with neg and pos infinities
+			result = pickMove(state, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
+
+		if (!outOfTime){
+			lastValue = valueOf(result);
+		}
+		return result;
+	}
+
+	/**
+	 * MTD(f): home in on the root value with null-window searches, each one
+	 * telling whether the value is above or below a guess. The table keeps
+	 * the work of one search for the next.
+	 *
+	 * @param state the position to search
+	 * @param depth the number of moves to look ahead in game tree search
+	 * @param guess first guess at the value
+	 * @return the packed (value, move) result
+	 */
+	private long mtdf(Connect4BitBoard state, int depth, int guess){
+		int value = guess;
+		int lowerBound = -Integer.MAX_VALUE;
+		int upperBound = Integer.MAX_VALUE;
+		long result = result(guess, -1);
+		int bestMove = -1;
+
+		while (lowerBound < upperBound){
+			int beta = (value == lowerBound) ? value + 1 : value;
+
+			result = pickMove(state, depth, beta - 1, beta);
+			if (outOfTime){
+				return result;
+			}
+
+			value = valueOf(result);
+			if (value < beta){
+				upperBound = value;
+			} else {
+				lowerBound = value;
+				bestMove = moveOf(result); // reaches the lower bound, so it is a best move
+			}
+		}
+
+		// a best move comes from the last search that failed high, if there was one
+		return result(value, bestMove >= 0 ? bestMove : moveOf(result));
+	}
+
+	/**
+	 * Packs a value and a move into one long so that the search can return
+	 * both without allocating a Connect4Move
+	 *
+	 * @param value the value of the move
+	 * @param move the column
+	 * @return the packed result
+	 */
+	private static long result(int value, int move){
+		return ((long) value << 32) | (move & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param result a packed search result
+	 * @return the value of the move
+	 */
+	public static int valueOf(long result){
+		return (int) (result >> 32);
+	}
+
+	/**
+	 * @param result a packed search result
+	 * @return the column to play
+	 */
+	public static int moveOf(long result){
+		return (int) result;
+	}
+
 	/**
 	 * Uses game tree search with alpha-beta pruning to pick player's move 
 	 * low and high define the current range for the best move
@@ -41,145 +885,259 @@ public class ComputerConnect4Player extends Player {
 	 * @param depth the number of moves to look ahead in game tree search
 	 * @param low a value that the player can achieve by some other move
 	 * @param high a value that the opponent can force by a different line of play
-	 * @param view view for testing purposes
 	 * 
-	 * @return the move chosen
+	 * @return the move chosen, packed with its value
 	 */
-	private static Connect4Move pickMove(Connect4Game state, int depth, int low, int high, Connect4View view){
-		Connect4Move[] movesArray; // order of moves
+	private long pickMove(Connect4BitBoard state, int depth, int low, int high){
+		int originalLow = low;
+		int tableMove = -1;
 
-		// grab the available moves, sorted by value
-		movesArray = checkMoves(state);
+		nodes++;
 
-		// dummy move that will be replaced with evaluation
-		Connect4Move bestMove = new Connect4Move(-Integer.MAX_VALUE, -10); 
+		// give up when out of time; the caller throws away what we return
+		if ((nodes % CHECK_INTERVAL) == 0 && (stopped || System.nanoTime() > deadline)){
+			outOfTime = true;
+		}
+		if (outOfTime){
+			return result(0, -1);
+		}
+
+		if (listener != null){
+			listener.nodeEntered(state, depth, low, high);
+		}
+
+		// have we already searched this position (or its mirror image) deep enough?
+		long key = state.getCanonicalKey();
+		long entry = table.probe(key);
+		tableProbes++;
+		if (entry != Connect4TranspositionTable.MISS){
+			tableHits++;
+			int value = Connect4TranspositionTable.score(entry);
+			int bound = Connect4TranspositionTable.bound(entry);
+			tableMove = state.canonicalMove(Connect4TranspositionTable.move(entry));
+
+			if (settles(entry, depth, low, high)){
+				if (listener != null){
+					listener.result(state, depth, value, tableMove, bound, true);
+				}
+				return result(value, tableMove);
+			}
+		}
+
+		// not settled by the table: maybe another search, in this process or not, has stored it
+		boolean useStore = storeActive && depth >= storeDepth;
+		if (useStore && (entry == Connect4TranspositionTable.MISS || Connect4TranspositionTable.depth(entry) < depth)){
+			long stored = store.probe(key);
+
+			if (stored != Connect4TranspositionTable.MISS){
+				int value = Connect4TranspositionTable.score(stored);
+				int bound = Connect4TranspositionTable.bound(stored);
+				int storedMove = Connect4TranspositionTable.move(stored);
+
+				if (settles(stored, depth, low, high)){
+					// keep it in the table too, so the rest of this search finds it there
+					table.store(key, Connect4TranspositionTable.depth(stored), bound, storedMove, value);
+					if (listener != null){
+						listener.result(state, depth, value, state.canonicalMove(storedMove), bound, true);
+					}
+					return result(value, state.canonicalMove(storedMove));
+				}
 
+				if (tableMove < 0 || Connect4TranspositionTable.depth(stored) > Connect4TranspositionTable.depth(entry)){
+					tableMove = state.canonicalMove(storedMove);
+				}
+			}
+		}
+
+		// no table move: try the last search's principal variation, if we are on it
+		if (tableMove < 0 && pvKeys[state.getMovesPlayed()] == state.getKey()){
+			tableMove = pvMoves[state.getMovesPlayed()];
+		}
+
+		// grab the available moves: the table's best move, then killers, then by history
+		// (each ply has its own buffer, so children don't clobber the list)
+		int[] movesArray = orderBuffer[state.getMovesPlayed()];
+		ordering.order(state, tableMove, movesArray, valueBuffer[state.getMovesPlayed()]);
+
+		// dummy move that will be replaced with evaluation
+		int bestValue = -Integer.MAX_VALUE;
+		int bestMove = -10;
+		int tried = 0; // moves tried so far
+		int columns = state.getSize().getColumns();
 
 		// Use alpha-beta pruning to pick the move
-		for (int i = 0; i < 7 && bestMove.value < high; i++){
+		for (int i = 0; i < columns && bestValue < high; i++){
 			// grab the move from list
-			int column = movesArray[i].move;
+			int column = movesArray[i];
 
 			if (state.isValidMove(column)){
-				Connect4Move currentMove;
+				int currentValue;
+				tried++;
 
 				// grab value of current position to restore later
 				int evalValue = state.grabEvalValue();
 
-				state.makeMove(column);
-
-//				 testing
-								view.display(state);
-								System.out.println("===============");
-								System.out.println("Position Eval # :" + evaluate(state));
-								System.out.println("===============");
+				if (listener != null){
+					listener.moveTried(state, column);
+				}
 
+				state.makeMove(column);
 
 				if (state.gameIsOver()){
-					// Is game over because board is full?
-					if (state.isFull()){
-						currentMove = new Connect4Move(0, column); // assign value of 0
-					} 
-
-					// if it's comp's turn, then this must be a win scenario
-					currentMove = new Connect4Move(HOW_GOOD[4], column);
-
+					// a win, else the board filled up without one: a draw
+					currentValue = state.lastMoveWon() ? evaluator.winValue() : 0;
 				} 
+				// the endgame database knows how this ends, so there is nothing to search
+				else if (endgame != null && endgame.covers(state)){
+					currentValue = -endgameValue(endgame.lookup(state));
+				}
 				// keep going if depth available
 				else if (depth >= 1){
 
 					// Switch player perspective
 					// Reduce depth by 1
-					currentMove = pickMove(state, depth - 1, -high, -low, view);
+					long reply;
+					if (driver == Driver.PVS && bestMove >= 0 && high - low > 1){
+						// scout with a null window: can this move beat the best so far?
+						reply = pickMove(state, depth - 1, -low - 1, -low);
+
+						// it can, so search it again to find out by how much
+						int scout = -valueOf(reply);
+						if (!outOfTime && scout > low && scout < high){
+							reply = pickMove(state, depth - 1, -high, -low);
+						}
+					} else {
+						reply = pickMove(state, depth - 1, -high, -low);
+					}
+
+					if (outOfTime){
+						state.undoMove(column, evalValue);
+						return reply;
+					}
 
 					// transfer values back while changing perspective
-					currentMove.value = (currentMove.value * -1);
-					currentMove.move = column;
+					currentValue = (valueOf(reply) * -1);
 
 				} else { 
-					currentMove = new Connect4Move(state.grabEvalValue(), column);
+					leafEvaluations++;
+					currentValue = evaluator.evaluate(state);
 				}
 
 				// Is the current move better than what we've found so far?
-				if (currentMove.value > bestMove.value){
-					bestMove = currentMove; // replace
-					low = Math.max(bestMove.value, low); // update the achievable lower bound value
+				if (currentValue > bestValue){
+					bestValue = currentValue; // replace
+					bestMove = column;
+					low = Math.max(bestValue, low); // update the achievable lower bound value
 				}
 
 				// undo move before trying next move
 				state.undoMove(column, evalValue);
+
+				if (bestValue >= high){
+					ordering.cutoff(state, column, depth);
+
+					cutoffs++;
+					if (tried == 1){
+						firstMoveCutoffs++;
+					}
+
+					if (listener != null){
+						listener.cutoff(state, column, bestValue);
+					}
+				}
 			}
 
 		}
 
-		return bestMove;
+		// remember the result, and whether it is exact or only a bound
+		int bound = Connect4TranspositionTable.EXACT;
+		if (bestValue <= originalLow){
+			bound = Connect4TranspositionTable.UPPER;
+		} else if (bestValue >= high){
+			bound = Connect4TranspositionTable.LOWER;
+		}
+		table.store(key, depth, bound, state.canonicalMove(bestMove), bestValue);
+		if (useStore){
+			store.store(key, depth, bound, state.canonicalMove(bestMove), bestValue);
+		}
+
+		if (listener != null){
+			listener.result(state, depth, bestValue, bestMove, bound, false);
+		}
+
+		return result(bestValue, bestMove);
 	}
 
 
 	/**
-	 * Check the move list for their associated values
-	 * Then sort them by value
-	 * 
-	 * @param state the current state of the game
-	 * @return an array of moves sorted by their values
+	 * Pick the best move by the endgame database: a win, else a move whose
+	 * position is lost for the opponent, else drawn, center first among equals
+	 *
+	 * @param state a position the database covers (left unchanged)
+	 * @return the column to play
 	 */
-	private static Connect4Move[] checkMoves(Connect4Game state){
-		int stateEval; // evaluation of current state based on unblocked 4 in rows
-		Connect4Move[] movesArray = new Connect4Move[Connect4Game.COLS];
-
-		stateEval = state.grabEvalValue();
-
-		// go through each column in move list
-		for (int i = 0; i < Connect4Game.COLS; i++){
-			int theMove = movesByCol[i];
-
-			movesArray[i] = new Connect4Move(-Integer.MAX_VALUE, theMove);
-			if (state.isValidMove(theMove)){
-				// try the move
-				state.makeMove(theMove);
+	private int endgameMove(Connect4BitBoard state){
+		int bestMove = -1;
+		int bestValue = Connect4EndgameDatabase.UNKNOWN;
 
-				// now evaluate the new state and store value to check against later
-				movesArray[i].value = state.grabEvalValue();
+		for (int column : state.getSize().getColumnOrder()){
+			if (!state.isValidMove(column)){
+				continue;
+			}
 
-				// undo the state before checking again
-				state.undoMove(theMove, stateEval);
-			} 
-		}
+			int evalValue = state.grabEvalValue();
+			state.makeMove(column);
 
-		// sort the move lists by values
-		for (int i = 1; i < Connect4Game.COLS; i++){
-			for (int compare = i; (compare >=1 && movesArray[compare].value > 
-			movesArray[compare - 1].value);
-					compare--){
-				// placeholder to prevent clobbering
-				Connect4Move placeholder = movesArray[compare];
-				movesArray[compare] = movesArray[compare - 1];
-				movesArray[compare - 1] = placeholder;
+			int value;
+			if (state.gameIsOver()){
+				// a four-in-row, or the board filled up
+				value = state.lastMoveWon() ? Connect4EndgameDatabase.WIN : Connect4EndgameDatabase.DRAW;
+			} else {
+				value = Connect4EndgameDatabase.WIN + Connect4EndgameDatabase.LOSS - endgame.lookup(state);
 			}
+			state.undoMove(column, evalValue);
 
+			if (value > bestValue){
+				bestValue = value;
+				bestMove = column;
+			}
 		}
 
-		// new set of moves with updated values
-		return movesArray;
+		return bestMove;
 	}
 
 	/**
-	 * Helper method that counts the moves made
-	 * 
-	 * @param state the input state of the board
-	 * @return the number of moves already made
+	 * Turn an endgame database value into a search value
+	 *
+	 * @param value WIN, DRAW or LOSS for the player to move
+	 * @return the value for the search, from the same player's view
 	 */
-	private static int movesDone(Connect4State state){
-		// count the pieces
-
-		int counter = 0;
-		for (int row = 0; row < Connect4Game.ROWS; row++){
-			for (int column = 0; column < Connect4Game.COLS; column++){
-				if (state.getBoard()[row][column] != Connect4Game.EMPTY) counter++;
-			}
+	private int endgameValue(int value){
+		if (value == Connect4EndgameDatabase.WIN){
+			return evaluator.winValue();
+		} else if (value == Connect4EndgameDatabase.LOSS){
+			return -evaluator.winValue();
 		}
+		return 0;
+	}
+
+	/**
+	 * Does a stored result decide a search without searching?
+	 *
+	 * @param entry a packed table or store entry
+	 * @param depth the depth the search would go to
+	 * @param low the search's lower bound
+	 * @param high the search's upper bound
+	 * @return true if it was searched deep enough and its bound settles the window
+	 */
+	private static boolean settles(long entry, int depth, int low, int high){
+		int value = Connect4TranspositionTable.score(entry);
+		int bound = Connect4TranspositionTable.bound(entry);
 
-		return counter;
+		return Connect4TranspositionTable.depth(entry) >= depth &&
+				(bound == Connect4TranspositionTable.EXACT ||
+				(bound == Connect4TranspositionTable.LOWER && value >= high) ||
+				(bound == Connect4TranspositionTable.UPPER && value <= low));
 	}
 
 	/**
@@ -194,6 +1152,7 @@ public class ComputerConnect4Player extends Player {
 		char player = Connect4State.CHECKERS[state.getPlayerNum()];
 
 		char[][] board = state.getBoard();
+		Connect4BoardSize size = state.getSize();
 
 		// value that evaluates the unblocked four-in-rows
 		int totalEvaluation = 0;
@@ -203,7 +1162,7 @@ public class ComputerConnect4Player extends Player {
 		//   . X X . .   => unblocked on both sides so we can connect 4
 		//  by placing another piece to become
 		//  . X X X .
-		for (int checkColumn = 0; checkColumn < 3; checkColumn ++){
+		for (int checkColumn = 0; checkColumn + 4 < size.getColumns(); checkColumn ++){
 			// if 0 is empty, followed by 2 of my pieces and two more empty, this is a pattern
 			if (board[0][checkColumn] == Connect4State.EMPTY &&
 					board[0][checkColumn + 1] == player && 
@@ -221,89 +1180,24 @@ public class ComputerConnect4Player extends Player {
 		}
 
 
-		// Evaluate unblocked verticals
-		// all potential ver 4-in-row start from at most from row 2
-		for (int column = 0; column < Connect4Game.COLS; column++){
-			for (int row = 0; row < 3; row++){
-				int compCount = 0;
-				int oppCount = 0;
+		// Evaluate unblocked verticals, horizontals and both diagonals:
+		// every four-in-row line the board size has
+		for (int[] line : size.getLines()){
+			int compCount = 0;
+			int oppCount = 0;
 
-				for (int checkRow = row; checkRow < row + 4; checkRow++){
-					if (board[checkRow][column] == player){
-						compCount++;
-					} else if (board[checkRow][column] == opponent){
-						oppCount++;
-					}
-				}
-
-				totalEvaluation = Connect4Game.applyWeights(oppCount, compCount, totalEvaluation);
-			}
-		}
+			for (int cell : line){
+				char checker = board[cell / size.getColumns()][cell % size.getColumns()];
 
-		// Evaluate unblocked horizontals
-		// all potential hor 4-in-row start from at most from halfway col
-		for (int column = 0; column <= 3; column++){
-			for(int row = 0; row < Connect4Game.ROWS; row++){
-				// counters for computer and opponent
-				int compCount = 0;
-				int oppCount = 0;
-
-				for (int checkColumn = column; checkColumn < column + 4; checkColumn++){
-					// check whose checker it is and increment their counter
-					if (board[row][checkColumn] == player){
-						compCount++;
-					} else if (board[row][checkColumn] == opponent){
-						oppCount++;
-					}
+				// check whose checker it is and increment their counter
+				if (checker == player){
+					compCount++;
+				} else if (checker == opponent){
+					oppCount++;
 				}
-
-				totalEvaluation = Connect4Game.applyWeights(oppCount, compCount, totalEvaluation);
 			}
-		}
-
-		// Evaluate unblocked diagonals (up to right)
-		// up to right diagonal start at most from row 2, column 3
-		for (int column = 0; column < 4; column++){
-			for (int row = 0; row < 3; row++){
-				int compCount = 0;
-				int oppCount = 0;
 
-				int checkRow = row; // need a checkrow parameter for diag
-				for (int checkColumn = column; checkRow < row + 4; checkColumn++){
-					if (board[checkRow][checkColumn] == player){
-						compCount++;
-					} else if (board[checkRow][checkColumn] == opponent){
-						oppCount++;
-					}
-
-					checkRow++; // adjust for diagonal
-				}
-
-
-				totalEvaluation = Connect4Game.applyWeights(oppCount, compCount, totalEvaluation);
-			}
-		}
-
-		// Evaluate unblocked diagonals (down to right)
-		// down to right diagonal start at most from row 3, column 3
-		for (int column = 0; column < 4; column++){
-			for (int row = 3; row <= 5; row++){
-				int compCount = 0;
-				int oppCount = 0;
-
-				int checkRow = row; // need a checkrow parameter for diag
-				for (int checkColumn = column; checkColumn < column + 4; checkColumn++){
-					if (board[checkRow][checkColumn] == player){
-						compCount++;
-					} else if (board[checkRow][checkColumn] == opponent){
-						oppCount++;
-					}
-
-					checkRow--; // adjust for diagonal
-				}
-
-				totalEvaluation = Connect4Game.applyWeights(oppCount, compCount, totalEvaluation);
-			}
+			totalEvaluation = Connect4Game.applyWeights(oppCount, compCount, totalEvaluation);
 		}
 
 		return totalEvaluation;
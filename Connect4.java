@@ -20,8 +20,15 @@ public class Connect4 {
 			answer = input.nextLine();
 		}
 
+		// the text view can show any board size; the graphical view draws the standard board
+		Connect4BoardSize size = Connect4BoardSize.STANDARD;
 		if (answer.contains("Text")){
 			view = new Connect4Text();
+
+			String askSize = view.getAnswer("Board size, columns x rows (e.g. 8x7; Enter for 7x6)");
+			if (!askSize.trim().isEmpty()){
+				size = Connect4BoardSize.parse(askSize);
+			}
 		} else {
 			view = new Connect4ViewGraphical();
 		}
@@ -35,8 +42,14 @@ public class Connect4 {
 				"\n(Include 'Computer' if you want a computer player) ");
 
 		if (playerName.contains("Computer")){
-			int askDepth = view.getIntAnswer("Please enter depth of computer");
-			players[0] = new ComputerConnect4Player(playerName, askDepth);
+			int askDepth = view.getIntAnswer("Please enter depth of computer (0 to play on a time budget)");
+			if (askDepth > 0){
+				players[0] = new ComputerConnect4Player(playerName, askDepth);
+			} else {
+				int askTime = view.getIntAnswer("Please enter milliseconds per move");
+				players[0] = new ComputerConnect4Player(playerName, size.getSlots(),
+						askTime, new Connect4TranspositionTable());
+			}
 		} else { 
 			players[0] = new Connect4HumanPlayer(playerName);
 		}
@@ -45,13 +58,33 @@ public class Connect4 {
 				"\n(Include 'Computer' if you want a computer player) ");
 
 		if (playerName.contains("Computer")){
-			int askDepth = view.getIntAnswer("Please enter depth of computer");
-			players[1] = new ComputerConnect4Player(playerName, askDepth);
+			int askDepth = view.getIntAnswer("Please enter depth of computer (0 to play on a time budget)");
+			if (askDepth > 0){
+				players[1] = new ComputerConnect4Player(playerName, askDepth);
+			} else {
+				int askTime = view.getIntAnswer("Please enter milliseconds per move");
+				players[1] = new ComputerConnect4Player(playerName, size.getSlots(),
+						askTime, new Connect4TranspositionTable());
+			}
 		} else { 
 			players[1] = new Connect4HumanPlayer(playerName);
 		}
 
-		Connect4Game state = new Connect4Game(0, players); 
+		// make the computer players' search statistics visible to JMX tools like jconsole
+		for (Player player : players){
+			if (player instanceof ComputerConnect4Player){
+				((ComputerConnect4Player) player).getMetrics().register();
+			}
+		}
+
+		// a computer playing a human thinks while the human does
+		for (int i = 0; i < 2; i++){
+			if (players[i] instanceof ComputerConnect4Player && players[1 - i] instanceof Connect4HumanPlayer){
+				((ComputerConnect4Player) players[i]).setPondering(true);
+			}
+		}
+
+		Connect4Game state = new Connect4Game(size, 0, players); 
 
 		view.display(state);
 
@@ -63,6 +96,12 @@ public class Connect4 {
 			view.display(state);
 		}
 
+		for (Player player : players){
+			if (player instanceof ComputerConnect4Player){
+				((ComputerConnect4Player) player).stopPondering();
+			}
+		}
+
 		// The game is over
 		// declare the winner!
 		view.reportToUser(state.getPlayers()[1 - state.getPlayerNum()].getName() + " won!");
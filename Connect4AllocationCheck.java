@@ -0,0 +1,47 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Connect4AllocationCheck.java
+ * 
+ * Checks that the computer player's search allocates nothing per node:
+ * measures the bytes allocated by this thread during a depth-N search and
+ * fails if there are any.
+ * 
+ * Usage: java Connect4AllocationCheck [depth]
+ */
+
+public class Connect4AllocationCheck {
+	public static void main(String[] args){
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		ComputerConnect4Player player = new ComputerConnect4Player("Computer", depth);
+		Connect4BitBoard state = new Connect4BitBoard(Connect4Game.fromMoves("3342", new Player[] {player, player}));
+
+		// warm up so that class loading and JIT compilation don't count
+		for (int i = 0; i < 20; i++){
+			player.search(state, depth);
+			player.getTable().clear();
+		}
+
+		// what measuring costs on its own
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+		before = threads.getThreadAllocatedBytes(thread);
+		long result = player.search(state, depth);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+		System.out.println("depth " + depth + ": " + player.getNodeCount() + " nodes, move "
+				+ ComputerConnect4Player.moveOf(result) + ", " + allocated + " bytes allocated");
+
+		if (allocated > 0){
+			System.out.println("FAILED: the search allocated memory");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+}
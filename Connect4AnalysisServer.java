@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Connect4AnalysisServer.java
+ *
+ * Serves position analysis over HTTP, on the JDK's built-in server.
+ *
+ *   GET /analyze?moves=3342&depth=10     search to a depth
+ *   GET /analyze?moves=3342&time=200     search for up to 200ms
+ *   GET /metrics                         search totals, in Prometheus text format
+ *
+ * /analyze answers with JSON: the best move, its score (from the view of the
+ * player to move) and the search statistics.
+ *
+ * Searches run on a fixed pool of computer players, each with its own
+ * transposition table, warmed up when the server starts. A player forgets
+ * its last search before each request, so a request searched to a depth
+ * gets the same answer whatever came before it. A request waits
+ * for a free player; once as many requests are waiting as the queue allows,
+ * new ones are turned away at once with 503 and Retry-After instead of
+ * piling up. Handlers run on virtual threads when the JDK has them (21 and
+ * later) and on a bounded pool of platform threads otherwise.
+ *
+ * Usage: Connect4AnalysisServer [port] [engines] [queue]
+ */
+
+public class Connect4AnalysisServer {
+	public static final int DEFAULT_PORT = 8044;
+
+	// the most a request may ask for
+	public static final int MAX_DEPTH = 16;
+	public static final long MAX_TIME = 10000;
+
+	private static final int DEFAULT_DEPTH = 8;
+	private static final int WARM_UP_SEARCHES = 200;
+
+	private final BlockingQueue<ComputerConnect4Player> engines; // idle players
+	private final ComputerConnect4Player[] allEngines;
+	private final Semaphore admitted; // requests searching or waiting for a player
+
+	private HttpServer server;
+	private ExecutorService handlers;
+
+	/**
+	 * Create a server with warmed-up players
+	 *
+	 * @param engineCount number of searches that can run at once
+	 * @param queueLength number of requests that may wait for a player
+	 */
+	public Connect4AnalysisServer(int engineCount, int queueLength){
+		if (engineCount < 1 || queueLength < 0){
+			throw new IllegalArgumentException("Need at least one engine and a queue of zero or more");
+		}
+
+		engines = new ArrayBlockingQueue<ComputerConnect4Player>(engineCount);
+		allEngines = new ComputerConnect4Player[engineCount];
+		admitted = new Semaphore(engineCount + queueLength);
+
+		for (int i = 0; i < engineCount; i++){
+			allEngines[i] = new ComputerConnect4Player("engine-" + i, DEFAULT_DEPTH);
+			warmUp(allEngines[i]);
+			allEngines[i].getMetrics().reset();
+			engines.add(allEngines[i]);
+		}
+	}
+
+	/**
+	 * Search some positions so that the JIT has compiled the search before
+	 * the first request, then forget them again
+	 *
+	 * @param engine the player to warm up
+	 */
+	private static void warmUp(ComputerConnect4Player engine){
+		for (int i = 0; i < WARM_UP_SEARCHES; i++){
+			String moves = Connect4Speedup.POSITIONS[i % Connect4Speedup.POSITIONS.length];
+			engine.search(new Connect4BitBoard(Connect4Game.fromMoves(moves, new Player[2])), 6);
+		}
+		engine.newGame();
+	}
+
+	/**
+	 * Start serving
+	 *
+	 * @param port the port to listen on
+	 */
+	public void start(int port) throws IOException {
+		handlers = handlerExecutor(admitted.availablePermits());
+
+		// the server writes headers and body separately; without TCP_NODELAY the
+		// body waits out the client's delayed ACK on kept-alive connections (~40ms)
+		if (System.getProperty("sun.net.httpserver.nodelay") == null){
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/analyze", this::analyze);
+		server.createContext("/metrics", this::metrics);
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	/**
+	 * Stop serving, letting running requests finish for up to a second
+	 */
+	public void stop(){
+		server.stop(1);
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * Makes the executor for request handlers: a virtual thread per request
+	 * when the JDK has them, otherwise enough platform threads for every
+	 * admitted request plus a few to turn the rest away
+	 *
+	 * @param admittedRequests most requests searching or waiting at once
+	 * @return the executor
+	 */
+	private static ExecutorService handlerExecutor(int admittedRequests){
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e){
+			return Executors.newFixedThreadPool(admittedRequests + Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	/**
+	 * Handle /analyze
+	 *
+	 * @param exchange the request and response
+	 */
+	private void analyze(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")){
+			respond(exchange, 405, "{\"error\":\"use GET\"}");
+			return;
+		}
+
+		// read and check the request before taking a player for it
+		Connect4Game game;
+		int depth;
+		long time;
+		try {
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			game = Connect4Game.fromMoves(query.getOrDefault("moves", ""), new Player[2]);
+			depth = Integer.parseInt(query.getOrDefault("depth", query.containsKey("time") ? String.valueOf(MAX_DEPTH) : String.valueOf(DEFAULT_DEPTH)));
+			time = Long.parseLong(query.getOrDefault("time", "0"));
+
+			if (depth < 0 || depth > MAX_DEPTH || time < 0 || time > MAX_TIME){
+				throw new IllegalArgumentException("depth must be 0 to " + MAX_DEPTH + " and time 0 to " + MAX_TIME);
+			}
+			if (game.gameIsOver()){
+				throw new IllegalArgumentException("the game is over");
+			}
+		} catch (IllegalArgumentException e){
+			respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+			return;
+		}
+
+		if (!admitted.tryAcquire()){
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			respond(exchange, 503, "{\"error\":\"busy\"}");
+			return;
+		}
+
+		try {
+			ComputerConnect4Player engine = engines.take();
+			try {
+				respond(exchange, 200, search(engine, game, depth, time));
+			} finally {
+				engines.add(engine);
+			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "{\"error\":\"shutting down\"}");
+		} finally {
+			admitted.release();
+		}
+	}
+
+	/**
+	 * Search a position with a player from the pool
+	 *
+	 * @param engine the player
+	 * @param game the position
+	 * @param depth depth to search to
+	 * @param time milliseconds to search for, 0 to search to depth
+	 * @return the JSON result
+	 */
+	private static String search(ComputerConnect4Player engine, Connect4Game game, int depth, long time){
+		// every request is a new game, so that nothing kept from the last
+		// request (table, history, aspiration window) changes the answer
+		engine.newGame();
+
+		// the player asks the state who is moving, so the position needs players
+		Connect4Game state = new Connect4Game(game.getPlayerNum(), new Player[] { engine, engine },
+				game.getBoard(), game.getMovesPlayed(), game.grabEvalValue());
+
+		engine.setLimits(depth, time);
+		int move = engine.getMove(state, new Connect4SilentView());
+		Connect4SearchStats stats = engine.getLastStats();
+
+		return String.format("{\"move\":%d,\"score\":%d,\"depth\":%d,\"nodes\":%d,\"leafEvaluations\":%d,"
+				+ "\"cutoffs\":%d,\"firstMoveCutoffRate\":%.4f,\"effectiveBranchingFactor\":%.3f,"
+				+ "\"tableHitRate\":%.4f,\"timeMillis\":%.3f,\"nodesPerSecond\":%.0f}",
+				move, engine.getLastValue(), stats.getDepthReached(), stats.getNodes(), stats.getLeafEvaluations(),
+				stats.getCutoffs(), stats.getFirstMoveCutoffRate(), stats.getEffectiveBranchingFactor(),
+				stats.getTableHitRate(), stats.getElapsedNanos() / 1e6, stats.getNodesPerSecond());
+	}
+
+	/**
+	 * Handle /metrics
+	 *
+	 * @param exchange the request and response
+	 */
+	private void metrics(HttpExchange exchange) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (ComputerConnect4Player engine : allEngines){
+			text.append(engine.getMetrics().exportText());
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+		send(exchange, 200, text.toString());
+	}
+
+	/**
+	 * Send a JSON response
+	 */
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		send(exchange, status, json);
+	}
+
+	/**
+	 * Send a response and close the exchange
+	 */
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		try (OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Split a query string into its parameters
+	 *
+	 * @param rawQuery the query, still URL-encoded, or null
+	 * @return the parameters
+	 */
+	private static Map<String, String> parseQuery(String rawQuery){
+		Map<String, String> query = new HashMap<String, String>();
+		if (rawQuery == null){
+			return query;
+		}
+
+		for (String pair : rawQuery.split("&")){
+			int equals = pair.indexOf('=');
+			if (equals > 0){
+				query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Quote a string for JSON
+	 */
+	private static String quote(String text){
+		StringBuilder quoted = new StringBuilder("\"");
+
+		for (char c : text.toCharArray()){
+			if (c == '"' || c == '\\'){
+				quoted.append('\\').append(c);
+			} else if (c < 0x20){
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Run the server until killed
+	 * @param args optionally the port, number of engines and queue length
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int engineCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queueLength = args.length > 2 ? Integer.parseInt(args[2]) : 4 * engineCount;
+
+		Connect4AnalysisServer server = new Connect4AnalysisServer(engineCount, queueLength);
+		server.start(port);
+
+		System.out.println("Serving on port " + port + " with " + engineCount + " engine(s), queue " + queueLength);
+	}
+}
@@ -0,0 +1,200 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4BatchAnalyzer.java
+ *
+ * Analyzes a file of positions, one move sequence per line (one digit per
+ * move, e.g. "3342"), and writes one CSV line per position, in input order:
+ *   moves,best,score,nodes,micros
+ * A line that isn't a position still gets a line, with "error" and the reason.
+ *
+ * The input is streamed: only a window of positions a few times the number
+ * of threads is in memory at once, however big the file is. Each worker
+ * thread keeps one transposition table, emptied before every position, so
+ * the output is the same whatever the thread count.
+ *
+ * Given a position store (see Connect4PositionStore), the workers share
+ * their results with each other and with later runs and other processes
+ * using the same file, so positions already searched come back at once.
+ * A result stored from a deeper search is taken as it is, so the output
+ * then depends on what the store held.
+ *
+ * Usage: Connect4BatchAnalyzer input output [depth] [threads] [store]
+ */
+
+public class Connect4BatchAnalyzer {
+	private static final int WINDOW_PER_THREAD = 4; // positions in flight per worker
+	private static final int TABLE_BITS = 16; // small, because it is cleared for every position
+	private static final int STORE_BITS = 22; // results a new store file holds, 64MB
+	private static final int STORE_DEPTH = 4; // shallower subtrees are searched faster than looked up
+
+	private final int depth;
+	private final int threads;
+	private Connect4PositionStore store; // null for none
+
+	// each worker's table, so that positions don't pay to allocate one
+	private final ThreadLocal<Connect4TranspositionTable> tables = ThreadLocal.withInitial(() ->
+			new Connect4TranspositionTable(TABLE_BITS, Connect4TranspositionTable.Replacement.DEPTH_PREFERRED));
+
+	/**
+	 * Create an analyzer
+	 *
+	 * @param depth depth to search every position at
+	 * @param threads number of worker threads
+	 */
+	public Connect4BatchAnalyzer(int depth, int threads){
+		if (threads < 1){
+			throw new IllegalArgumentException("Need at least one worker thread");
+		}
+
+		this.depth = depth;
+		this.threads = threads;
+	}
+
+	/**
+	 * Share results through a position store
+	 * @param store the store, for the standard board and the default evaluator; null for none
+	 */
+	public void setPositionStore(Connect4PositionStore store){
+		this.store = store;
+	}
+
+	/**
+	 * Analyze every line of the input and write the results
+	 *
+	 * @param input positions, one move sequence per line
+	 * @param output where to write the CSV results
+	 * @return the number of lines analyzed
+	 */
+	public long analyze(BufferedReader input, BufferedWriter output) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+		int window = threads * WINDOW_PER_THREAD;
+		long lines = 0;
+
+		try {
+			output.write("moves,best,score,nodes,micros");
+			output.newLine();
+
+			String line;
+			while ((line = input.readLine()) != null){
+				String moves = line.trim();
+				inFlight.add(pool.submit(() -> analyzeLine(moves)));
+				lines++;
+
+				// the oldest position has to be written before reading more
+				if (inFlight.size() >= window){
+					write(inFlight.poll(), output);
+				}
+			}
+
+			while (!inFlight.isEmpty()){
+				write(inFlight.poll(), output);
+			}
+
+			output.flush();
+			return lines;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Wait for a result and write it
+	 *
+	 * @param result the pending line of output
+	 * @param output where to write it
+	 */
+	private static void write(Future<String> result, BufferedWriter output) throws IOException, InterruptedException {
+		try {
+			output.write(result.get());
+			output.newLine();
+		} catch (ExecutionException e){
+			throw new IllegalStateException("Analysis failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Search one position
+	 *
+	 * @param moves the moves of the position, one digit per move
+	 * @return the line of output
+	 */
+	private String analyzeLine(String moves){
+		Connect4BitBoard state;
+		try {
+			state = new Connect4BitBoard(Connect4Game.fromMoves(moves, new Player[2]));
+		} catch (IllegalArgumentException e){
+			return moves + ",error," + e.getMessage().replace(',', ';') + ",,";
+		}
+
+		if (state.gameIsOver()){
+			return moves + ",error,game is over,,";
+		}
+
+		Connect4TranspositionTable table = tables.get();
+		table.clear();
+
+		// a new player every time, so no move ordering carries over from the last position
+		ComputerConnect4Player player = new ComputerConnect4Player("analyzer", depth, table);
+		player.setPositionStore(store, STORE_DEPTH);
+
+		long start = System.nanoTime();
+		long result = player.search(state, depth);
+		long micros = (System.nanoTime() - start) / 1000;
+
+		return moves + "," + ComputerConnect4Player.moveOf(result) + "," + ComputerConnect4Player.valueOf(result)
+				+ "," + player.getNodeCount() + "," + micros;
+	}
+
+	/**
+	 * Analyze a file of positions
+	 * @param args input file, output file, then optionally the depth, thread count and store file
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2){
+			System.err.println("Usage: Connect4BatchAnalyzer input output [depth] [threads] [store]");
+			System.exit(2);
+		}
+
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Connect4BatchAnalyzer analyzer = new Connect4BatchAnalyzer(depth, threads);
+
+		Connect4PositionStore store = null;
+		if (args.length > 4){
+			store = new Connect4PositionStore(Paths.get(args[4]), STORE_BITS, Connect4BoardSize.STANDARD,
+					new Connect4WindowEvaluator());
+			analyzer.setPositionStore(store);
+		}
+
+		long start = System.nanoTime();
+		long lines;
+
+		try (BufferedReader input = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.US_ASCII);
+				BufferedWriter output = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.US_ASCII)){
+			lines = analyzer.analyze(input, output);
+		} finally {
+			if (store != null){
+				store.close();
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(lines + " positions at depth " + depth + " on " + threads + " thread(s) in "
+				+ String.format("%.1fs (%.0f positions/s)", seconds, lines / seconds));
+		if (store != null){
+			System.out.println(store);
+		}
+	}
+}
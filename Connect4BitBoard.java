@@ -0,0 +1,619 @@
+/**
+ * Connect4BitBoard.java
+ *
+ * Represents the state of the Connect 4 game as a pair of bitboards.
+ *
+ * Each column takes rows + 1 bits (one spare bit on top so that shifts never
+ * carry a checker from one column into the next). Bit (col * (rows + 1) + row)
+ * stands for board[row][col]. "current" holds the checkers of the player whose
+ * move it is and "mask" holds every occupied slot, so the other player's checkers
+ * are (current ^ mask).
+ *
+ * The board can be any Connect4BoardSize. Boards of up to 64 bits (7x6, 8x7)
+ * are one long each; bigger ones, up to 128 bits (9x7 ...), carry the bits from
+ * 64 up in currentHigh and maskHigh. Their keys fold the 128-bit key into 64
+ * bits, so unlike one-long keys they can (very rarely) collide. getCurrent
+ * and getMask only cover one-long boards, and the static helpers only the
+ * standard board.
+ *
+ * One-long boards also keep their mirror image (columns flipped left to
+ * right) up to date as moves are made and undone, for getCanonicalKey: a
+ * position and its mirror image share that key, so tables and books keyed
+ * by it store each pair once. Moves stored under the canonical key are in
+ * its orientation; canonicalMove turns them to this board's and back.
+ *
+ * The char[][] board is only built when a view asks for it.
+ */
+
+public class Connect4BitBoard implements Connect4State{
+	public static final int HEIGHT = ROWS + 1; // bits per column of the standard board, including the spare top bit
+
+	// the bottom slot of every column, and every playable slot, of the standard board
+	public static final long BOTTOM_MASK = Connect4BoardSize.STANDARD.getBottomMask();
+	public static final long BOARD_MASK = Connect4BoardSize.STANDARD.getBoardMask();
+
+	private final Connect4BoardSize size;
+	private final int rows;
+	private final int height; // bits per column
+	private final int slots; // cells on the board
+	private final boolean wide; // needs the high words
+	private final int lastColumn;
+
+	// every four-in-row window on the board (low and high words), and the windows running through each slot
+	private final long[] windows;
+	private final long[] windowsHigh;
+	private final int[][] windowsBySlot;
+
+	private long current; // checkers of the player whose move it is
+	private long mask;    // all occupied slots
+	private long currentHigh; // the same from bit 64 up, on boards that need two longs
+	private long maskHigh;
+	private long mirrorCurrent; // current and mask flipped left to right, on one-long boards
+	private long mirrorMask;
+	private int[] heights; // number of checkers in each column
+
+	private Player [] players;
+	private int playerToMoveNum; // 0 or 1 for which player to go
+
+	private int movesDone; // number of moves made
+
+	private int evalValue; // evaluation of unblocked four-in-row for the player who just moved
+	private Connect4Weights weights = Connect4Weights.DEFAULT; // what each window adds to evalValue
+
+	private char[][] board;  // lazily built copy of the board for views
+	private boolean boardStale = true;
+
+	/**
+	 * Constructs game in initial state
+	 *
+	 * @param playerNum the player whose move it is
+	 * @param thePlayers the player objects
+	 */
+	public Connect4BitBoard(int playerNum, Player [] thePlayers){
+		this(Connect4BoardSize.STANDARD, playerNum, thePlayers);
+	}
+
+	/**
+	 * Constructs game in initial state on a board of any size
+	 *
+	 * @param boardSize the size of the board
+	 * @param playerNum the player whose move it is
+	 * @param thePlayers the player objects
+	 */
+	public Connect4BitBoard(Connect4BoardSize boardSize, int playerNum, Player [] thePlayers){
+		size = boardSize;
+		rows = size.getRows();
+		height = size.getHeight();
+		slots = size.getSlots();
+		wide = !size.fitsOneLong();
+		lastColumn = size.getColumns() - 1;
+		windows = size.getWindows();
+		windowsHigh = size.getWindowsHigh();
+		windowsBySlot = size.getWindowsBySlot();
+
+		heights = new int[size.getColumns()];
+		playerToMoveNum = playerNum;
+		players = thePlayers;
+
+		movesDone = 0;
+		evalValue = 0;
+	}
+
+	/**
+	 * Construct the game from any other game state
+	 *
+	 * @param state the state to replicate
+	 */
+	public Connect4BitBoard(Connect4State state){
+		this(state, Connect4Weights.DEFAULT);
+	}
+
+	/**
+	 * Construct the game from any other game state, evaluating it with
+	 * other window weights than the default
+	 *
+	 * @param state the state to replicate
+	 * @param windowWeights the weights evalValue is kept with
+	 */
+	public Connect4BitBoard(Connect4State state, Connect4Weights windowWeights){
+		this(state.getSize(), state.getPlayerNum(), state.getPlayers());
+		weights = windowWeights;
+
+		char[][] initialBoard = state.getBoard();
+
+		// the player to move drops the opposite checker (see Connect4Game.makeMove)
+		char toMove = CHECKERS[1 - playerToMoveNum];
+
+		for (int column = 0; column < size.getColumns(); column++){
+			for (int row = 0; row < size.getRows() && initialBoard[row][column] != EMPTY; row++){
+				int slot = size.bitIndex(row, column);
+
+				if (slot < 64){
+					mask |= 1L << slot;
+					if (initialBoard[row][column] == toMove){
+						current |= 1L << slot;
+					}
+				} else {
+					maskHigh |= 1L << (slot - 64);
+					if (initialBoard[row][column] == toMove){
+						currentHigh |= 1L << (slot - 64);
+					}
+				}
+
+				heights[column]++;
+				movesDone++;
+			}
+		}
+
+		if (!wide){
+			mirrorCurrent = size.mirror(current);
+			mirrorMask = size.mirror(mask);
+		}
+
+		evalValue = fullEvaluation();
+	}
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param other the bitboard to copy
+	 */
+	public Connect4BitBoard(Connect4BitBoard other){
+		size = other.size;
+		rows = other.rows;
+		height = other.height;
+		slots = other.slots;
+		wide = other.wide;
+		lastColumn = other.lastColumn;
+		windows = other.windows;
+		windowsHigh = other.windowsHigh;
+		windowsBySlot = other.windowsBySlot;
+
+		current = other.current;
+		mask = other.mask;
+		currentHigh = other.currentHigh;
+		maskHigh = other.maskHigh;
+		mirrorCurrent = other.mirrorCurrent;
+		mirrorMask = other.mirrorMask;
+		heights = other.heights.clone();
+		players = other.players;
+		playerToMoveNum = other.playerToMoveNum;
+		movesDone = other.movesDone;
+		evalValue = other.evalValue;
+		weights = other.weights;
+	}
+
+	/**
+	 * Gets the window weights the evaluation is kept with
+	 * @return the weights
+	 */
+	public Connect4Weights getWeights(){
+		return weights;
+	}
+
+	@Override
+	/**
+	 * Gets a 2-D array representing the board.
+	 * Built from the bitboards the first time it is asked for after a move.
+	 *
+	 * @return the board
+	 */
+	public char[][] getBoard() {
+		if (boardStale){
+			if (board == null){
+				board = new char[size.getRows()][size.getColumns()];
+			}
+
+			char toMove = CHECKERS[1 - playerToMoveNum];
+			char justMoved = CHECKERS[playerToMoveNum];
+
+			for (int row = 0; row < size.getRows(); row++){
+				for (int column = 0; column < size.getColumns(); column++){
+					int slot = size.bitIndex(row, column);
+
+					if (!isSet(mask, maskHigh, slot)){
+						board[row][column] = EMPTY;
+					} else if (isSet(current, currentHigh, slot)){
+						board[row][column] = toMove;
+					} else {
+						board[row][column] = justMoved;
+					}
+				}
+			}
+
+			boardStale = false;
+		}
+
+		return board;
+	}
+
+	/**
+	 * Is a bit of a two-long bitboard set?
+	 */
+	private static boolean isSet(long low, long high, int slot){
+		return (slot < 64) ? ((low >>> slot) & 1) != 0 : ((high >>> (slot - 64)) & 1) != 0;
+	}
+
+	@Override
+	public Connect4BoardSize getSize() {
+		return size;
+	}
+
+	@Override
+	public Player[] getPlayers() {
+		return players;
+	}
+
+	@Override
+	public int getPlayerNum() {
+		return playerToMoveNum;
+	}
+
+	@Override
+	public Player getPlayerToMove() {
+		return players[playerToMoveNum];
+	}
+
+	/**
+	 * Gets number of moves played
+	 * @return number of moves played so far
+	 */
+	public int getMovesPlayed(){
+		return movesDone;
+	}
+
+	/**
+	 * Returns the evaluation value for a given position
+	 * @return the evaluation value
+	 */
+	public int grabEvalValue(){
+		return evalValue;
+	}
+
+	/**
+	 * Gets the checkers of the player whose move it is (the bits below 64)
+	 * @return bitboard of the player to move
+	 */
+	public long getCurrent(){
+		return current;
+	}
+
+	/**
+	 * Gets the occupied slots (the bits below 64)
+	 * @return bitboard of all checkers
+	 */
+	public long getMask(){
+		return mask;
+	}
+
+	/**
+	 * Gets a key that is unique to the position.
+	 * Adding mask sets the bit just above each column, so every
+	 * arrangement of checkers gives a different sum. On boards that need two
+	 * longs the 128-bit sum is folded into one, which is no longer unique.
+	 * @return the position key
+	 */
+	public long getKey(){
+		if (!wide){
+			return current + mask;
+		}
+
+		long low = current + mask;
+		long high = currentHigh + maskHigh + (Long.compareUnsigned(low, current) < 0 ? 1 : 0);
+		return low ^ (high * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Gets a key shared by the position and its mirror image: the smaller of
+	 * the two positions' keys. Boards that need two longs aren't mirrored, and
+	 * their canonical key is getKey.
+	 * @return the canonical position key
+	 */
+	public long getCanonicalKey(){
+		return wide ? getKey() : Math.min(current + mask, mirrorCurrent + mirrorMask);
+	}
+
+	/**
+	 * Is the canonical key the mirror image's? Then moves stored under it are
+	 * flipped (see canonicalMove).
+	 * @return true if the canonical key is the mirror image's key
+	 */
+	public boolean isMirrored(){
+		return !wide && mirrorCurrent + mirrorMask < current + mask;
+	}
+
+	/**
+	 * Turns a move on this board into the orientation of the canonical key,
+	 * or a move stored under the canonical key back into this board's
+	 * orientation (flipping is its own inverse)
+	 *
+	 * @param column the move, or -1 for none
+	 * @return the move in the other orientation, or -1
+	 */
+	public int canonicalMove(int column){
+		return (column >= 0 && isMirrored()) ? lastColumn - column : column;
+	}
+
+	/**
+	 * Gets the number of checkers in a column
+	 * @param col the column to check
+	 * @return the column height
+	 */
+	public int getHeight(int col){
+		return heights[col];
+	}
+
+	@Override
+	public boolean isValidMove(int col) {
+		return heights[col] < rows;
+	}
+
+	/**
+	 * Make a move, dropping a checker in the given column
+	 * @param col the column to get the new checker
+	 */
+	@Override
+	public void makeMove(int col) {
+		if (!isValidMove(col)){
+			throw new IllegalStateException("Column is full!");
+		}
+
+		int slot = col * height + heights[col];
+
+		// Evaluation steps: only the windows through the new checker change
+		evalValue = -1 * evalValue;
+		if (wide){
+			makeWideMove(slot);
+		} else {
+			long opponent = current ^ mask;
+			for (int window : windowsBySlot[slot]){
+				int playerCount = Long.bitCount(current & windows[window]);
+				int opponentCount = Long.bitCount(opponent & windows[window]);
+
+				evalValue = evalValue - weights.apply(playerCount, opponentCount, 0);
+				evalValue = weights.apply(playerCount + 1, opponentCount, evalValue);
+			}
+
+			// add the checker and hand the move to the other player, on the mirror image too
+			current ^= mask;
+			mask |= 1L << slot;
+			mirrorCurrent ^= mirrorMask;
+			mirrorMask |= 1L << (slot + (lastColumn - 2 * col) * height);
+		}
+		heights[col]++;
+
+		playerToMoveNum = 1 - playerToMoveNum;
+		movesDone++;
+		boardStale = true;
+	}
+
+	/**
+	 * The evaluation and bitboard steps of makeMove on a board that needs two longs
+	 *
+	 * @param slot bit index of the new checker
+	 */
+	private void makeWideMove(int slot){
+		long opponent = current ^ mask;
+		long opponentHigh = currentHigh ^ maskHigh;
+
+		for (int window : windowsBySlot[slot]){
+			int playerCount = Long.bitCount(current & windows[window]) + Long.bitCount(currentHigh & windowsHigh[window]);
+			int opponentCount = Long.bitCount(opponent & windows[window]) + Long.bitCount(opponentHigh & windowsHigh[window]);
+
+			evalValue = evalValue - weights.apply(playerCount, opponentCount, 0);
+			evalValue = weights.apply(playerCount + 1, opponentCount, evalValue);
+		}
+
+		current ^= mask;
+		currentHigh ^= maskHigh;
+		if (slot < 64){
+			mask |= 1L << slot;
+		} else {
+			maskHigh |= 1L << (slot - 64);
+		}
+	}
+
+	/**
+	 * Undo the move to avoid creating a new state each time
+	 *
+	 * @param column column to undo
+	 * @param stateEval static evaluation at that time
+	 */
+	public void undoMove(int column, int stateEval){
+		heights[column]--;
+		int slot = column * height + heights[column];
+		if (slot < 64){
+			mask ^= 1L << slot;
+		} else {
+			maskHigh ^= 1L << (slot - 64);
+		}
+		current ^= mask;
+		if (wide){
+			currentHigh ^= maskHigh;
+		} else {
+			mirrorMask ^= 1L << (slot + (lastColumn - 2 * column) * height);
+			mirrorCurrent ^= mirrorMask;
+		}
+
+		playerToMoveNum = 1 - playerToMoveNum;
+
+		evalValue = stateEval;
+		movesDone--;
+		boardStale = true;
+	}
+
+	/**
+	 * Bring this board up to date with a game that has gone on by up to two
+	 * moves, by making those moves here: no new board and no full
+	 * evaluation. Gives up (and leaves the board as it was) if the game isn't
+	 * this one a move or two later, or if the board needs two longs.
+	 *
+	 * @param state the game now
+	 * @return true if the board now matches the game
+	 */
+	public boolean catchUp(Connect4State state){
+		if (state.getPlayers() != players || state.getSize() != size || wide){
+			return false;
+		}
+
+		// the game as bitboards, the same way the constructor reads it
+		char[][] otherBoard = state.getBoard();
+		char toMove = CHECKERS[1 - state.getPlayerNum()];
+		long otherCurrent = 0;
+		long otherMask = 0;
+
+		for (int column = 0; column < size.getColumns(); column++){
+			for (int row = 0; row < size.getRows() && otherBoard[row][column] != EMPTY; row++){
+				long slot = 1L << size.bitIndex(row, column);
+
+				otherMask |= slot;
+				if (otherBoard[row][column] == toMove){
+					otherCurrent |= slot;
+				}
+			}
+		}
+
+		long added = otherMask & ~mask;
+		int count = Long.bitCount(added);
+		if ((mask & ~otherMask) != 0 || count > 2){
+			return false;
+		}
+
+		// with two new checkers, the first is from the player to move now (who is to move again)
+		long first = (count == 2) ? (added & otherCurrent) : added;
+		long second = added ^ first;
+		if (count == 2 && Long.bitCount(first) != 1){
+			return false;
+		}
+
+		int firstColumn = (first == 0) ? -1 : Long.numberOfTrailingZeros(first) / height;
+		int secondColumn = (second == 0) ? -1 : Long.numberOfTrailingZeros(second) / height;
+		int firstEval = evalValue;
+		int secondEval = 0;
+		boolean secondMade = false;
+
+		if (firstColumn >= 0){
+			makeMove(firstColumn);
+			secondEval = evalValue;
+		}
+		if (secondColumn >= 0 && isValidMove(secondColumn)){
+			makeMove(secondColumn);
+			secondMade = true;
+		}
+
+		if (current == otherCurrent && mask == otherMask && playerToMoveNum == state.getPlayerNum()){
+			return true;
+		}
+
+		// checkers in an order that can't be played here: put the board back
+		if (secondMade){
+			undoMove(secondColumn, secondEval);
+		}
+		if (firstColumn >= 0){
+			undoMove(firstColumn, firstEval);
+		}
+		return false;
+	}
+
+	/**
+	 * Is the board full?
+	 * @return true if the board is full
+	 */
+	@Override
+	public boolean isFull() {
+		return (movesDone == slots);
+	}
+
+	/**
+	 * Decides if game is over
+	 * @return true iff the game is over
+	 */
+	@Override
+	public boolean gameIsOver() {
+		return isFull() || lastMoveWon();
+	}
+
+	/**
+	 * Did the player who just moved make four in a row? (A game can end
+	 * on a full board either way.)
+	 * @return true if the last move won
+	 */
+	public boolean lastMoveWon() {
+		if (wide){
+			return size.hasFour(current ^ mask, currentHigh ^ maskHigh);
+		}
+		return size.hasFour(current ^ mask);
+	}
+
+	/**
+	 * Does the bitboard of the standard board hold a four-in-row?
+	 *
+	 * @param position checkers of one player
+	 * @return true if there is a four-in-row
+	 */
+	public static boolean hasFour(long position){
+		return Connect4BoardSize.STANDARD.hasFour(position);
+	}
+
+	/**
+	 * Gets the slots of the standard board where a checker can be dropped right now
+	 *
+	 * @param mask all occupied slots
+	 * @return one bit per column that isn't full, at its first open row
+	 */
+	public static long possibleMoves(long mask){
+		return (mask + BOTTOM_MASK) & BOARD_MASK;
+	}
+
+	/**
+	 * Gets every empty slot of the standard board that would complete a
+	 * four-in-row for a player (whether or not it can be played yet)
+	 *
+	 * @param position checkers of one player
+	 * @param mask all occupied slots
+	 * @return the winning slots
+	 */
+	public static long winningSlots(long position, long mask){
+		return Connect4BoardSize.STANDARD.winningSlots(position, mask);
+	}
+
+	/**
+	 * Gets all slots of a column of the standard board
+	 *
+	 * @param column the column
+	 * @return bitboard of the column
+	 */
+	public static long columnMask(int column){
+		return ((1L << ROWS) - 1) << (column * HEIGHT);
+	}
+
+	/**
+	 * Gets the bit for a slot on the standard board
+	 *
+	 * @param row the row of the slot
+	 * @param column the column of the slot
+	 * @return the bit standing for that slot
+	 */
+	public static long slotBit(int row, int column){
+		return 1L << (column * HEIGHT + row);
+	}
+
+	/**
+	 * Evaluates every window from scratch, from the view of the player who just moved
+	 *
+	 * @return the evaluation value
+	 */
+	private int fullEvaluation(){
+		long justMoved = current ^ mask;
+		long justMovedHigh = currentHigh ^ maskHigh;
+		int sum = 0;
+
+		for (int window = 0; window < windows.length; window++){
+			sum = weights.apply(
+					Long.bitCount(justMoved & windows[window]) + Long.bitCount(justMovedHigh & windowsHigh[window]),
+					Long.bitCount(current & windows[window]) + Long.bitCount(currentHigh & windowsHigh[window]), sum);
+		}
+
+		return sum;
+	}
+}
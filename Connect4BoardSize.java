@@ -0,0 +1,500 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connect4BoardSize.java
+ *
+ * The dimensions of a board, and the tables that depend on them: the
+ * four-in-row lines through each cell, the center-first column order and
+ * the bitboard layout.
+ *
+ * Bitboards give each column rows + 1 bits (see Connect4BitBoard), so a
+ * board fits in one long when columns * (rows + 1) is at most 64 (7x6 and
+ * 8x7 do) and in two longs up to 128 (9x7, 10x8 ...). The bitboard helpers
+ * here (possibleMoves, winningSlots ...) are for one-long boards only.
+ *
+ * Sizes are shared: of() gives the same object for the same dimensions, so
+ * the tables are built once and sizes can be compared with ==.
+ */
+
+public final class Connect4BoardSize {
+	public static final int MAX_BITS = 128; // two longs
+	public static final int MAX_COLUMNS = MAX_BITS / 5; // at least 4 rows, so 5 bits per column
+	public static final int MAX_SLOTS = MAX_BITS;
+
+	private static final ConcurrentHashMap<Integer, Connect4BoardSize> SIZES =
+			new ConcurrentHashMap<Integer, Connect4BoardSize>();
+
+	public static final Connect4BoardSize STANDARD = of(Connect4State.COLS, Connect4State.ROWS);
+
+	private final int columns;
+	private final int rows;
+	private final int height; // bits per column, including the spare top bit
+
+	private final int[] columnOrder; // the closer to the center, the more four-in-rows through a column
+
+	// four-in-row lines as cells (row * columns + column), and the lines through each cell
+	private final int[][] lines;
+	private final int[][] linesThroughCell;
+
+	// the same lines as bitboards: low and high words, and the windows through each bit
+	private final long[] windows;
+	private final long[] windowsHigh;
+	private final int[][] windowsBySlot;
+
+	// one-long boards only: the bottom slot of every column, every playable slot, rows 1, 3, 5 ...
+	private final long bottomMask;
+	private final long boardMask;
+	private final long oddRows;
+
+	/**
+	 * Gets the size with the given dimensions
+	 *
+	 * @param columns width of the board
+	 * @param rows height of the board
+	 * @return the size
+	 * @throws IllegalArgumentException if a side is under 4 or the board needs more than two longs
+	 */
+	public static Connect4BoardSize of(int columns, int rows){
+		if (columns < 4 || rows < 4){
+			throw new IllegalArgumentException("A board needs at least 4 columns and 4 rows");
+		}
+		if (columns * (rows + 1) > MAX_BITS){
+			throw new IllegalArgumentException("A " + columns + "x" + rows + " board needs more than "
+					+ MAX_BITS + " bits (columns * (rows + 1))");
+		}
+
+		return SIZES.computeIfAbsent(columns * 1000 + rows, key -> new Connect4BoardSize(columns, rows));
+	}
+
+	/**
+	 * Reads a size written as columns x rows
+	 *
+	 * @param size e.g. "7x6" or "9x7"
+	 * @return the size
+	 */
+	public static Connect4BoardSize parse(String size){
+		String[] sides = size.trim().toLowerCase().split("x");
+		if (sides.length != 2){
+			throw new IllegalArgumentException("Not a board size (columns x rows): " + size);
+		}
+
+		return of(Integer.parseInt(sides[0].trim()), Integer.parseInt(sides[1].trim()));
+	}
+
+	private Connect4BoardSize(int columns, int rows){
+		this.columns = columns;
+		this.rows = rows;
+		this.height = rows + 1;
+
+		columnOrder = buildColumnOrder();
+		lines = buildLines();
+		linesThroughCell = buildLinesThroughCell();
+
+		windows = new long[lines.length];
+		windowsHigh = new long[lines.length];
+		int[][] bySlot = new int[columns * height][lines.length];
+		int[] counts = new int[columns * height];
+
+		for (int line = 0; line < lines.length; line++){
+			for (int cell : lines[line]){
+				int bit = bitIndex(cell / columns, cell % columns);
+
+				if (bit < 64){
+					windows[line] |= 1L << bit;
+				} else {
+					windowsHigh[line] |= 1L << (bit - 64);
+				}
+				bySlot[bit][counts[bit]++] = line;
+			}
+		}
+
+		windowsBySlot = new int[bySlot.length][];
+		for (int bit = 0; bit < bySlot.length; bit++){
+			windowsBySlot[bit] = Arrays.copyOf(bySlot[bit], counts[bit]);
+		}
+
+		long bottom = 0;
+		long odd = 0;
+		if (fitsOneLong()){
+			for (int column = 0; column < columns; column++){
+				bottom |= 1L << (column * height);
+			}
+			for (int row = 0; row < rows; row += 2){
+				odd |= bottom << row;
+			}
+		}
+		bottomMask = bottom;
+		boardMask = bottom * ((1L << rows) - 1);
+		oddRows = odd;
+	}
+
+	/**
+	 * Gets the width of the board
+	 * @return the number of columns
+	 */
+	public int getColumns(){
+		return columns;
+	}
+
+	/**
+	 * Gets the height of the board
+	 * @return the number of rows
+	 */
+	public int getRows(){
+		return rows;
+	}
+
+	/**
+	 * Gets the number of cells, which is the most moves a game can last
+	 * @return columns * rows
+	 */
+	public int getSlots(){
+		return columns * rows;
+	}
+
+	/**
+	 * Gets the bits per column of a bitboard (one spare bit on top)
+	 * @return rows + 1
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Does a bitboard of this size fit in one long?
+	 * @return true if columns * (rows + 1) is at most 64
+	 */
+	public boolean fitsOneLong(){
+		return columns * height <= 64;
+	}
+
+	/**
+	 * Gets the columns center first (right of center before left)
+	 * @return the column order; don't change it
+	 */
+	public int[] getColumnOrder(){
+		return columnOrder;
+	}
+
+	/**
+	 * Gets every four-in-row line
+	 * @return the four cells (row * columns + column) of each line; don't change it
+	 */
+	public int[][] getLines(){
+		return lines;
+	}
+
+	/**
+	 * Gets the lines running through each cell
+	 * @return line numbers, by cell (row * columns + column); don't change it
+	 */
+	public int[][] getLinesThroughCell(){
+		return linesThroughCell;
+	}
+
+	/**
+	 * Gets the bitboard of every line, the bits below 64
+	 * @return the low words, by line number; don't change it
+	 */
+	public long[] getWindows(){
+		return windows;
+	}
+
+	/**
+	 * Gets the bitboard of every line, the bits from 64 up
+	 * @return the high words (all 0 on one-long boards), by line number; don't change it
+	 */
+	public long[] getWindowsHigh(){
+		return windowsHigh;
+	}
+
+	/**
+	 * Gets the lines running through each bit of a bitboard
+	 * @return line numbers, by bit index; don't change it
+	 */
+	public int[][] getWindowsBySlot(){
+		return windowsBySlot;
+	}
+
+	/**
+	 * Gets the bit index of a cell in a bitboard
+	 *
+	 * @param row the row of the cell
+	 * @param column the column of the cell
+	 * @return column * (rows + 1) + row
+	 */
+	public int bitIndex(int row, int column){
+		return column * height + row;
+	}
+
+	/**
+	 * Gets the bottom slot of every column (one-long boards)
+	 * @return the bottom mask
+	 */
+	public long getBottomMask(){
+		return bottomMask;
+	}
+
+	/**
+	 * Gets every playable slot (one-long boards)
+	 * @return the board mask
+	 */
+	public long getBoardMask(){
+		return boardMask;
+	}
+
+	/**
+	 * Gets rows 1, 3, 5 ... counting the bottom row as 1 (one-long boards)
+	 * @return the odd rows
+	 */
+	public long getOddRows(){
+		return oddRows;
+	}
+
+	/**
+	 * Gets all slots of a column (one-long boards)
+	 *
+	 * @param column the column
+	 * @return bitboard of the column
+	 */
+	public long columnMask(int column){
+		return ((1L << rows) - 1) << (column * height);
+	}
+
+	/**
+	 * Flips a bitboard left to right (one-long boards). Works on keys too,
+	 * since adding the mask never carries out of a column.
+	 *
+	 * @param bits the bitboard
+	 * @return the bitboard with column c moved to column (columns - 1 - c)
+	 */
+	public long mirror(long bits){
+		long column = (1L << height) - 1;
+		long mirrored = 0;
+
+		for (int c = 0; c < columns; c++){
+			mirrored |= ((bits >>> (c * height)) & column) << ((columns - 1 - c) * height);
+		}
+		return mirrored;
+	}
+
+	/**
+	 * Gets the slots where a checker can be dropped right now (one-long boards)
+	 *
+	 * @param mask all occupied slots
+	 * @return one bit per column that isn't full, at its first open row
+	 */
+	public long possibleMoves(long mask){
+		return (mask + bottomMask) & boardMask;
+	}
+
+	/**
+	 * Does the bitboard hold a four-in-row? (one-long boards)
+	 * Shifting by 1 lines up verticals, by the column height horizontals and
+	 * by one less or one more the two diagonals.
+	 *
+	 * @param position checkers of one player
+	 * @return true if there is a four-in-row
+	 */
+	public boolean hasFour(long position){
+		// horizontal
+		long pairs = position & (position >>> height);
+		if ((pairs & (pairs >>> (2 * height))) != 0) return true;
+
+		// diagonal via lower right
+		pairs = position & (position >>> (height - 1));
+		if ((pairs & (pairs >>> (2 * (height - 1)))) != 0) return true;
+
+		// diagonal via upper right
+		pairs = position & (position >>> (height + 1));
+		if ((pairs & (pairs >>> (2 * (height + 1)))) != 0) return true;
+
+		// vertical
+		pairs = position & (position >>> 1);
+		return (pairs & (pairs >>> 2)) != 0;
+	}
+
+	/**
+	 * Does the two-long bitboard hold a four-in-row?
+	 *
+	 * @param low checkers of one player, bits below 64
+	 * @param high the same player's checkers from bit 64 up
+	 * @return true if there is a four-in-row
+	 */
+	public boolean hasFour(long low, long high){
+		if (hasFourAlong(low, high, 1)){
+			return true;
+		}
+
+		for (int shift = height - 1; shift <= height + 1; shift++){
+			if (hasFourAlong(low, high, shift)){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Four in a row along one direction of a two-long bitboard
+	 *
+	 * @param low bits below 64
+	 * @param high bits from 64 up
+	 * @param shift bit distance between neighbours in the direction
+	 * @return true if there is a four-in-row
+	 */
+	private static boolean hasFourAlong(long low, long high, int shift){
+		long pairsLow = low & shiftedLow(low, high, shift);
+		long pairsHigh = high & shiftedHigh(high, shift);
+
+		return (pairsLow & shiftedLow(pairsLow, pairsHigh, 2 * shift)) != 0
+				|| (pairsHigh & shiftedHigh(pairsHigh, 2 * shift)) != 0;
+	}
+
+	/**
+	 * The low word of a two-long bitboard shifted right
+	 *
+	 * @param low bits below 64
+	 * @param high bits from 64 up
+	 * @param shift 1 to 127
+	 * @return the low word after the shift
+	 */
+	private static long shiftedLow(long low, long high, int shift){
+		if (shift >= 64){
+			return high >>> (shift - 64);
+		}
+		return (low >>> shift) | (high << (64 - shift));
+	}
+
+	/**
+	 * The high word of a two-long bitboard shifted right
+	 *
+	 * @param high bits from 64 up
+	 * @param shift 1 to 127
+	 * @return the high word after the shift
+	 */
+	private static long shiftedHigh(long high, int shift){
+		return (shift >= 64) ? 0 : high >>> shift;
+	}
+
+	/**
+	 * Gets every empty slot that would complete a four-in-row for a player
+	 * (whether or not it can be played yet). One-long boards.
+	 *
+	 * @param position checkers of one player
+	 * @param mask all occupied slots
+	 * @return the winning slots
+	 */
+	public long winningSlots(long position, long mask){
+		// vertical: three in a column with the slot above them
+		long slots = (position << 1) & (position << 2) & (position << 3);
+
+		// horizontal and the two diagonals: the slot can be at either end or in
+		// the middle of the four, so check both sides of each shift
+		for (int shift = height - 1; shift <= height + 1; shift++){
+			long pairs = (position << shift) & (position << (2 * shift));
+			slots |= pairs & (position << (3 * shift));
+			slots |= pairs & (position >>> shift);
+
+			pairs = (position >>> shift) & (position >>> (2 * shift));
+			slots |= pairs & (position << shift);
+			slots |= pairs & (position >>> (3 * shift));
+		}
+
+		return slots & (boardMask ^ mask);
+	}
+
+	/**
+	 * Is this the standard 7x6 board?
+	 * @return true for the standard size
+	 */
+	public boolean isStandard(){
+		return this == STANDARD;
+	}
+
+	@Override
+	public String toString(){
+		return columns + "x" + rows;
+	}
+
+	/**
+	 * Orders the columns center first, right of center before left
+	 *
+	 * @return the column order
+	 */
+	private int[] buildColumnOrder(){
+		int[] order = new int[columns];
+		int count = 0;
+
+		// twice the distance from the center, so even widths have two center columns
+		for (int distance = 0; distance < columns; distance++){
+			for (int column = columns - 1; column >= 0; column--){
+				if (Math.abs(2 * column - (columns - 1)) == distance){
+					order[count++] = column;
+				}
+			}
+		}
+
+		return order;
+	}
+
+	/**
+	 * Numbers every four-in-row line on the board
+	 *
+	 * @return the four cells (row * columns + column) of each line
+	 */
+	private int[][] buildLines(){
+		// row and column steps for vertical, horizontal and the two diagonals
+		int[][] directions = { {1, 0}, {0, 1}, {1, 1}, {-1, 1} };
+		int[][] found = new int[rows * columns * directions.length][];
+		int count = 0;
+
+		for (int[] direction : directions){
+			for (int row = 0; row < rows; row++){
+				for (int column = 0; column < columns; column++){
+					int endRow = row + 3 * direction[0];
+					int endColumn = column + 3 * direction[1];
+
+					if (endRow < 0 || endRow >= rows || endColumn >= columns){
+						continue;
+					}
+
+					int[] line = new int[4];
+					for (int i = 0; i < 4; i++){
+						line[i] = (row + i * direction[0]) * columns + column + i * direction[1];
+					}
+					found[count++] = line;
+				}
+			}
+		}
+
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Lists the lines running through each cell
+	 *
+	 * @return line numbers for each cell (row * columns + column)
+	 */
+	private int[][] buildLinesThroughCell(){
+		int[][] byCell = new int[rows * columns][];
+
+		for (int cell = 0; cell < byCell.length; cell++){
+			int count = 0;
+			int[] found = new int[lines.length];
+
+			for (int line = 0; line < lines.length; line++){
+				for (int lineCell : lines[line]){
+					if (lineCell == cell){
+						found[count++] = line;
+					}
+				}
+			}
+
+			byCell[cell] = Arrays.copyOf(found, count);
+		}
+
+		return byCell;
+	}
+}
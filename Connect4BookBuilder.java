@@ -0,0 +1,168 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4BookBuilder.java
+ * 
+ * Builds an opening book offline: enumerates every position reachable in
+ * up to maxPly moves, scores each one with a deep search on all cores and
+ * writes the results sorted by key for Connect4OpeningBook to map. A
+ * position and its mirror image are one record, under the canonical key.
+ * 
+ * Usage: java Connect4BookBuilder file maxPly depth [threads]
+ */
+
+public class Connect4BookBuilder {
+	private int maxPly;
+	private int depth;
+	private int threads;
+
+	/**
+	 * @param maxPly book positions have at most this many moves played
+	 * @param depth depth to search each position at
+	 * @param threads number of positions to search at once
+	 */
+	public Connect4BookBuilder(int maxPly, int depth, int threads){
+		this.maxPly = maxPly;
+		this.depth = depth;
+		this.threads = threads;
+	}
+
+	/**
+	 * Enumerate, score and write the book
+	 * @param file the book file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void build(String file) throws IOException {
+		List<Connect4BitBoard> positions = new ArrayList<Connect4BitBoard>();
+		enumerate(new Connect4BitBoard(0, new Player[2]), new HashSet<Long>(), positions);
+
+		long[] results = score(positions);
+
+		// sort by key, carrying the results along, with the moves turned to the canonical orientation
+		long[][] records = new long[positions.size()][];
+		for (int i = 0; i < records.length; i++){
+			Connect4BitBoard position = positions.get(i);
+			records[i] = new long[] {position.getCanonicalKey(), ComputerConnect4Player.valueOf(results[i]),
+					position.canonicalMove(ComputerConnect4Player.moveOf(results[i]))};
+		}
+		Arrays.sort(records, (a, b) -> Long.compare(a[0], b[0]));
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(Paths.get(file))))) {
+			out.writeLong(Connect4OpeningBook.MAGIC);
+			out.writeLong(records.length);
+
+			for (long[] record : records){
+				out.writeLong(record[0]);
+				out.writeInt((int) record[1]);
+				out.writeInt((int) record[2]);
+			}
+		}
+	}
+
+	/**
+	 * Collect every position up to maxPly where the game is still going,
+	 * once each however many move orders reach it, and leaving out mirror
+	 * images of positions already collected (their moves are mirror images too)
+	 * 
+	 * @param state the position reached so far
+	 * @param seen canonical keys of positions already collected
+	 * @param positions the collected positions
+	 */
+	private void enumerate(Connect4BitBoard state, Set<Long> seen, List<Connect4BitBoard> positions){
+		if (!seen.add(state.getCanonicalKey())){
+			return;
+		}
+		positions.add(new Connect4BitBoard(state));
+
+		if (state.getMovesPlayed() == maxPly){
+			return;
+		}
+
+		for (int column = 0; column < Connect4State.COLS; column++){
+			if (state.isValidMove(column)){
+				int evalValue = state.grabEvalValue();
+				state.makeMove(column);
+
+				if (!state.gameIsOver()){
+					enumerate(state, seen, positions);
+				}
+
+				state.undoMove(column, evalValue);
+			}
+		}
+	}
+
+	/**
+	 * Search every position, splitting them between the threads.
+	 * Each thread has its own transposition table, cleared before every
+	 * position, and a new player for every position, so that a position's
+	 * score doesn't depend on which ones were searched before it.
+	 * 
+	 * @param positions the positions to search
+	 * @return the packed (value, move) result for each position
+	 */
+	private long[] score(List<Connect4BitBoard> positions){
+		long[] results = new long[positions.size()];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> work = new ArrayList<Future<?>>();
+
+		for (int t = 0; t < threads; t++){
+			int first = t;
+			work.add(pool.submit(() -> {
+				Connect4TranspositionTable table = new Connect4TranspositionTable();
+
+				for (int i = first; i < results.length; i += threads){
+					table.clear();
+					ComputerConnect4Player player = new ComputerConnect4Player("Book", depth, table);
+					results[i] = player.search(positions.get(i), depth);
+				}
+			}));
+		}
+
+		try {
+			for (Future<?> done : work){
+				done.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Book build interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Book search failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return results;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3){
+			System.err.println("Usage: java Connect4BookBuilder file maxPly depth [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		long start = System.nanoTime();
+
+		new Connect4BookBuilder(Integer.parseInt(args[1]), Integer.parseInt(args[2]), threads).build(args[0]);
+
+		try (Connect4OpeningBook book = new Connect4OpeningBook(Paths.get(args[0]))) {
+			System.out.printf("%d positions written to %s in %.1fs%n", book.size(), args[0],
+					(System.nanoTime() - start) / 1e9);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Connect4DriverComparison.java
+ * 
+ * Runs every search driver over the Connect4Speedup position suite at a
+ * fixed depth and prints nodes and time for each, checking that PVS and
+ * MTD(f) give the same score as plain alpha-beta. A driver may pick
+ * another move of the same score; those are counted and listed apart from
+ * score differences, which are bugs.
+ * 
+ * Usage: java Connect4DriverComparison [depth]
+ */
+
+public class Connect4DriverComparison {
+	public static void main(String[] args){
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		String[] positions = Connect4Speedup.POSITIONS;
+		ComputerConnect4Player.Driver[] drivers = ComputerConnect4Player.Driver.values();
+
+		long[][] results = new long[drivers.length][positions.length];
+
+		System.out.println("depth " + depth + ", " + positions.length + " positions");
+		System.out.println("driver            nodes       ms  scores differ  other moves");
+
+		for (int d = 0; d < drivers.length; d++){
+			long nodes = 0;
+			long time = 0;
+			int scoreDifferences = 0;
+			int moveDifferences = 0;
+
+			for (int p = 0; p < positions.length; p++){
+				ComputerConnect4Player player = new ComputerConnect4Player("Computer", depth);
+				player.setDriver(drivers[d]);
+				Connect4BitBoard state = new Connect4BitBoard(Connect4Game.fromMoves(positions[p], new Player[2]));
+
+				long start = System.nanoTime();
+				results[d][p] = player.search(state, depth);
+				time += System.nanoTime() - start;
+				nodes += player.getNodeCount();
+
+				if (ComputerConnect4Player.valueOf(results[d][p]) != ComputerConnect4Player.valueOf(results[0][p])){
+					scoreDifferences++;
+					System.out.println("  score differs: " + drivers[d] + " on \"" + positions[p] + "\": "
+							+ describe(results[d][p]) + ", alpha-beta " + describe(results[0][p]));
+				} else if (ComputerConnect4Player.moveOf(results[d][p]) != ComputerConnect4Player.moveOf(results[0][p])){
+					moveDifferences++;
+					System.out.println("  other move:    " + drivers[d] + " on \"" + positions[p] + "\": "
+							+ describe(results[d][p]) + ", alpha-beta " + describe(results[0][p]));
+				}
+			}
+
+			System.out.printf("%-12s %10d %8.0f  %13d  %11d%n", drivers[d], nodes, time / 1e6,
+					scoreDifferences, moveDifferences);
+		}
+	}
+
+	private static String describe(long result){
+		return "score " + ComputerConnect4Player.valueOf(result) + " move " + ComputerConnect4Player.moveOf(result);
+	}
+}
@@ -0,0 +1,537 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Connect4EndgameBuilder.java
+ *
+ * Builds an endgame database offline for Connect4EndgameDatabase to map.
+ * Enumerates every position reachable from the empty board, one number of
+ * moves played at a time, keeping those with at most emptySlots empty slots
+ * where the game isn't over (a position and its mirror image once, under
+ * the canonical key). Then works back from the last move: a position is a
+ * win if a move wins or leads to a loss for the opponent, a draw if the best
+ * it can do is fill the board or reach a draw, else a loss. The values of
+ * one number of moves played are worked out on all threads at once, from
+ * the group after it, which is already in its final form.
+ *
+ * Every position on the way has to be enumerated too. On the standard
+ * board their number nearly triples with every move (5.8 million after 12
+ * moves, a mirror image counted once), and the late groups would hold
+ * billions each, so the database is for the smaller boards, where it can
+ * hold the whole game: 35 million positions and 24MB for 6x4.
+ *
+ * Enumerating stops as soon as a group is too big to expand in the heap,
+ * so a board that is too large fails in seconds rather than at the end.
+ *
+ * Usage: java Connect4EndgameBuilder file emptySlots size [threads]
+ *   e.g. java Connect4EndgameBuilder 5x4.egdb 20 5x4
+ */
+
+public class Connect4EndgameBuilder {
+	private static final double BITS_PER_KEY = 2.0; // size of each hash level, per key left for it
+	private static final int MAX_LEVELS = 64;
+	private static final int LOOKUPS = 1000000; // timed after building
+	private static final long SEED = 1;
+
+	private final Connect4BoardSize size;
+	private final int emptySlots;
+	private final int threads;
+
+	private final int slots;
+	private final int height;
+	private final long bottom;
+
+	/**
+	 * @param size the board size, which must fit in one long
+	 * @param emptySlots positions with at most this many empty slots go in the database
+	 * @param threads number of threads to enumerate and solve with
+	 */
+	public Connect4EndgameBuilder(Connect4BoardSize size, int emptySlots, int threads){
+		if (!size.fitsOneLong()){
+			throw new IllegalArgumentException("An endgame database needs a board of at most 64 bits, not " + size);
+		}
+		if (emptySlots < 1 || emptySlots > size.getSlots()){
+			throw new IllegalArgumentException("Empty slots must be 1 to " + size.getSlots());
+		}
+
+		this.size = size;
+		this.emptySlots = emptySlots;
+		this.threads = threads;
+
+		slots = size.getSlots();
+		height = size.getHeight();
+		bottom = size.getBottomMask();
+	}
+
+	/**
+	 * Enumerate, solve and write the database
+	 * @param file the database file to write
+	 * @return positions in the database
+	 * @throws IOException if the file can't be written
+	 */
+	public long build(Path file) throws IOException {
+		int firstPly = slots - emptySlots;
+		long[][] keys = enumerate(firstPly);
+
+		ByteBuffer[] groups = new ByteBuffer[emptySlots];
+		long positions = 0;
+
+		// from the last move back: each group is solved from the one after it
+		for (int ply = slots - 1; ply >= firstPly; ply--){
+			ByteBuffer next = (ply + 1 < slots) ? groups[ply + 1 - firstPly] : null;
+
+			groups[ply - firstPly] = solve(keys[ply - firstPly], ply, next);
+			positions += keys[ply - firstPly].length;
+			keys[ply - firstPly] = null;
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+			out.writeLong(Connect4EndgameDatabase.MAGIC);
+			out.writeInt(size.getColumns());
+			out.writeInt(size.getRows());
+			out.writeInt(firstPly);
+			out.writeInt(slots - 1);
+
+			long offset = Connect4EndgameDatabase.HEADER_SIZE + 8L * groups.length;
+			for (ByteBuffer group : groups){
+				out.writeLong(offset);
+				offset += group.capacity();
+			}
+			if (offset > Integer.MAX_VALUE){
+				throw new IOException("Endgame database is too large to map: " + offset + " bytes");
+			}
+
+			for (ByteBuffer group : groups){
+				out.write(group.array());
+			}
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Gather the positions reachable from the empty board where the game
+	 * isn't over, one number of moves played after another
+	 *
+	 * @param firstPly moves played in the first group kept
+	 * @return the canonical keys, sorted, of each group from firstPly to the last move
+	 */
+	private long[][] enumerate(int firstPly){
+		long[][] kept = new long[slots - firstPly][];
+		long[] level = {0}; // the empty board
+
+		for (int ply = 0; ply < slots; ply++){
+			if (ply >= firstPly){
+				kept[ply - firstPly] = level;
+			}
+			if (ply + 1 < slots){
+				// up to a child per column, in buffers that double as they fill, then merged and copied
+				if ((long) level.length * 8 * 3 * size.getColumns() > Runtime.getRuntime().maxMemory()){
+					throw new IllegalStateException(size + " is too large for an endgame database: " + level.length
+							+ " positions after " + ply + " moves, and more with every move");
+				}
+				level = expand(level, ply);
+			}
+		}
+
+		return kept;
+	}
+
+	/**
+	 * Every position one move on from a group, where the move neither wins
+	 * nor fills the board
+	 *
+	 * @param level canonical keys of the positions
+	 * @param ply moves played in them
+	 * @return the canonical keys of the positions after them, sorted, each once
+	 */
+	private long[] expand(long[] level, int ply){
+		long[][] found = new long[threads][];
+		int[] counts = new int[threads];
+
+		onThreads(t -> {
+			long[] children = new long[1024];
+			int count = 0;
+
+			for (int i = t; i < level.length; i += threads){
+				long current = current(level[i]);
+				long mask = mask(level[i]);
+				long possible = size.possibleMoves(mask);
+
+				while (possible != 0){
+					long move = possible & -possible;
+					possible ^= move;
+
+					if (size.hasFour(current | move)){
+						continue;
+					}
+
+					if (count == children.length){
+						children = Arrays.copyOf(children, 2 * count);
+					}
+					children[count++] = canonicalKey(current ^ mask, mask | move);
+				}
+			}
+
+			// sorted and without repeats on each thread, so there is less to merge
+			Arrays.sort(children, 0, count);
+			found[t] = children;
+			counts[t] = unique(children, count);
+		});
+
+		long total = 0;
+		for (int count : counts){
+			total += count;
+		}
+		if (total > Integer.MAX_VALUE - 8){
+			throw new IllegalStateException("Too many positions after " + (ply + 1) + " moves on " + size);
+		}
+
+		long[] merged = new long[(int) total];
+		int length = 0;
+		for (int t = 0; t < threads; t++){
+			System.arraycopy(found[t], 0, merged, length, counts[t]);
+			length += counts[t];
+			found[t] = null;
+		}
+
+		Arrays.parallelSort(merged);
+		return Arrays.copyOf(merged, unique(merged, merged.length));
+	}
+
+	/**
+	 * Build a group: the minimal perfect hash of its keys and their values
+	 *
+	 * @param keys canonical keys of the positions, sorted
+	 * @param ply moves played in them
+	 * @param next the group after this one, null for the last move
+	 * @return the group, laid out as in the file
+	 */
+	private ByteBuffer solve(long[] keys, int ply, ByteBuffer next){
+		List<long[]> bitArrays = new ArrayList<long[]>();
+		List<int[]> countArrays = new ArrayList<int[]>();
+		List<Long> levelBits = new ArrayList<Long>();
+
+		// the hash: keys that collide in a level go on to the next one
+		long[] remaining = keys;
+		int left = keys.length;
+		while (left > 0){
+			if (bitArrays.size() == MAX_LEVELS){
+				throw new IllegalStateException("No perfect hash after " + MAX_LEVELS + " levels");
+			}
+
+			int level = bitArrays.size();
+			long bits = Math.max(64, ((long) Math.ceil(left * BITS_PER_KEY) + 63) / 64 * 64);
+			long[] taken = new long[(int) (bits / 64)];
+			long[] collided = new long[taken.length];
+
+			for (int i = 0; i < left; i++){
+				long slot = Connect4EndgameDatabase.slot(remaining[i], level, bits);
+				int word = (int) (slot >>> 6);
+
+				if ((taken[word] & (1L << slot)) != 0){
+					collided[word] |= 1L << slot;
+				}
+				taken[word] |= 1L << slot;
+			}
+
+			int stillLeft = 0;
+			long[] nextRemaining = new long[left];
+			for (int i = 0; i < left; i++){
+				long slot = Connect4EndgameDatabase.slot(remaining[i], level, bits);
+				if ((collided[(int) (slot >>> 6)] & (1L << slot)) != 0){
+					nextRemaining[stillLeft++] = remaining[i];
+				}
+			}
+			for (int word = 0; word < taken.length; word++){
+				taken[word] &= ~collided[word];
+			}
+
+			int[] counts = new int[(taken.length + Connect4EndgameDatabase.WORDS_PER_COUNT - 1)
+					/ Connect4EndgameDatabase.WORDS_PER_COUNT];
+			int count = 0;
+			for (int word = 0; word < taken.length; word++){
+				if (word % Connect4EndgameDatabase.WORDS_PER_COUNT == 0){
+					counts[word / Connect4EndgameDatabase.WORDS_PER_COUNT] = count;
+				}
+				count += Long.bitCount(taken[word]);
+			}
+
+			bitArrays.add(taken);
+			countArrays.add(counts);
+			levelBits.add(bits);
+			remaining = nextRemaining;
+			left = stillLeft;
+		}
+
+		// lay out the group: header, then each level's bits and counts, then the values
+		int levels = bitArrays.size();
+		long length = 16 + 32L * levels + 8;
+		long[] bitOffsets = new long[levels];
+		long[] countOffsets = new long[levels];
+		for (int level = 0; level < levels; level++){
+			bitOffsets[level] = length;
+			length += 8L * bitArrays.get(level).length;
+			countOffsets[level] = length;
+			length += (4L * countArrays.get(level).length + 7) / 8 * 8;
+		}
+		long valueOffset = length;
+		length += 8L * ((keys.length + 31) / 32);
+
+		if (length > Integer.MAX_VALUE){
+			throw new IllegalStateException("The positions after " + ply + " moves don't fit in one group");
+		}
+
+		ByteBuffer group = ByteBuffer.allocate((int) length);
+		group.putLong(0, keys.length);
+		group.putLong(8, levels);
+
+		long first = 0;
+		for (int level = 0; level < levels; level++){
+			int header = 16 + 32 * level;
+			group.putLong(header, levelBits.get(level));
+			group.putLong(header + 8, bitOffsets[level]);
+			group.putLong(header + 16, countOffsets[level]);
+			group.putLong(header + 24, first);
+
+			long[] bitArray = bitArrays.get(level);
+			for (int word = 0; word < bitArray.length; word++){
+				group.putLong((int) bitOffsets[level] + 8 * word, bitArray[word]);
+				first += Long.bitCount(bitArray[word]);
+			}
+
+			int[] counts = countArrays.get(level);
+			for (int block = 0; block < counts.length; block++){
+				group.putInt((int) countOffsets[level] + 4 * block, counts[block]);
+			}
+		}
+		group.putLong(16 + 32 * levels, valueOffset);
+
+		// the values, on all threads, then packed under the hash's numbers
+		byte[] values = new byte[keys.length];
+		onThreads(t -> {
+			for (int i = t; i < keys.length; i += threads){
+				values[i] = (byte) value(keys[i], ply, next);
+			}
+		});
+
+		for (int i = 0; i < keys.length; i++){
+			long index = Connect4EndgameDatabase.index(group, 0, keys[i]);
+			int word = (int) valueOffset + 8 * (int) (index >>> 5);
+			group.putLong(word, group.getLong(word) | ((long) values[i] << (2 * (index & 31))));
+		}
+
+		return group;
+	}
+
+	/**
+	 * Work out a position's value from the group after it
+	 *
+	 * @param key the position's canonical key
+	 * @param ply moves played in it
+	 * @param next the group after it, null if this is the last move
+	 * @return WIN, DRAW or LOSS for the player to move
+	 */
+	private int value(long key, int ply, ByteBuffer next){
+		long current = current(key);
+		long mask = mask(key);
+		long possible = size.possibleMoves(mask);
+
+		if ((size.winningSlots(current, mask) & possible) != 0){
+			return Connect4EndgameDatabase.WIN;
+		}
+		if (ply + 1 == slots){
+			return Connect4EndgameDatabase.DRAW; // the last slot, and it doesn't win
+		}
+
+		int best = Connect4EndgameDatabase.LOSS;
+		while (possible != 0 && best != Connect4EndgameDatabase.WIN){
+			long move = possible & -possible;
+			possible ^= move;
+
+			int reply = Connect4EndgameDatabase.value(next, 0, canonicalKey(current ^ mask, mask | move));
+			if (reply == Connect4EndgameDatabase.UNKNOWN){
+				throw new IllegalStateException("A position after " + (ply + 1) + " moves wasn't enumerated");
+			}
+
+			// the opponent's loss is my win
+			best = Math.max(best, Connect4EndgameDatabase.WIN + Connect4EndgameDatabase.LOSS - reply);
+		}
+
+		return best;
+	}
+
+	/**
+	 * Gets the checkers of the player to move back from a key (current + mask)
+	 */
+	private long current(long key){
+		long current = 0;
+		long sum = key + bottom; // each column is now the checkers plus the bit above the top one
+
+		for (int shift = 0; shift < size.getColumns() * height; shift += height){
+			long column = (sum >>> shift) & ((1L << height) - 1);
+			current |= (column ^ Long.highestOneBit(column)) << shift;
+		}
+		return current;
+	}
+
+	/**
+	 * Gets the occupied slots back from a key (current + mask)
+	 */
+	private long mask(long key){
+		long mask = 0;
+		long sum = key + bottom;
+
+		for (int shift = 0; shift < size.getColumns() * height; shift += height){
+			long column = (sum >>> shift) & ((1L << height) - 1);
+			mask |= (Long.highestOneBit(column) - 1) << shift;
+		}
+		return mask;
+	}
+
+	/**
+	 * The smaller of a position's key and its mirror image's
+	 */
+	private long canonicalKey(long current, long mask){
+		return Math.min(current + mask, size.mirror(current) + size.mirror(mask));
+	}
+
+	/**
+	 * Move repeated keys out of a sorted array
+	 *
+	 * @param keys sorted keys
+	 * @param count number of keys
+	 * @return number of different keys, now at the front
+	 */
+	private static int unique(long[] keys, int count){
+		int length = 0;
+		for (int i = 0; i < count; i++){
+			if (length == 0 || keys[i] != keys[length - 1]){
+				keys[length++] = keys[i];
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Run a task on every thread, each told its number, and wait for them all
+	 * @param task the work of thread t of threads
+	 */
+	private void onThreads(IntConsumer task){
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> work = new ArrayList<Future<?>>();
+
+		for (int t = 0; t < threads; t++){
+			int thread = t;
+			work.add(pool.submit(() -> task.accept(thread)));
+		}
+
+		try {
+			for (Future<?> done : work){
+				done.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Endgame build interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Endgame build failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Random positions from random games, with at most a number of empty slots
+	 * and the game not over, for timing lookups
+	 */
+	private static List<Connect4BitBoard> samplePositions(Connect4BoardSize size, int emptySlots, int count){
+		List<Connect4BitBoard> positions = new ArrayList<Connect4BitBoard>();
+		Random random = new Random(SEED);
+
+		while (positions.size() < count){
+			Connect4BitBoard state = new Connect4BitBoard(size, 0, new Player[2]);
+			int movesPlayed = size.getSlots() - 1 - random.nextInt(emptySlots);
+
+			while (!state.gameIsOver() && state.getMovesPlayed() < movesPlayed){
+				int column = random.nextInt(size.getColumns());
+				if (state.isValidMove(column)){
+					state.makeMove(column);
+				}
+			}
+			if (!state.gameIsOver()){
+				positions.add(state);
+			}
+		}
+
+		return positions;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3){
+			System.err.println("Usage: java Connect4EndgameBuilder file emptySlots size [threads]");
+			System.exit(2);
+		}
+
+		Path file = Paths.get(args[0]);
+		int emptySlots = Integer.parseInt(args[1]);
+		Connect4BoardSize size = Connect4BoardSize.parse(args[2]);
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		long positions = new Connect4EndgameBuilder(size, emptySlots, threads).build(file);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long bytes = Files.size(file);
+
+		System.out.printf("%s, up to %d empty slots: %d positions in %.1fs, %d bytes (%.2f bits per position)%n",
+				size, emptySlots, positions, seconds, bytes, 8.0 * bytes / positions);
+
+		// time lookups of positions from random games, and check a few against the solver
+		try (Connect4EndgameDatabase database = new Connect4EndgameDatabase(file)){
+			List<Connect4BitBoard> sample = samplePositions(size, emptySlots, 1000);
+			long[] keys = new long[sample.size()];
+			int[] movesPlayed = new int[sample.size()];
+			for (int i = 0; i < keys.length; i++){
+				keys[i] = sample.get(i).getCanonicalKey();
+				movesPlayed[i] = sample.get(i).getMovesPlayed();
+			}
+
+			long sum = 0;
+			for (int i = 0; i < LOOKUPS; i++){ // warm up
+				sum += database.lookup(keys[i % keys.length], movesPlayed[i % keys.length]);
+			}
+			long lookupStart = System.nanoTime();
+			for (int i = 0; i < LOOKUPS; i++){
+				sum += database.lookup(keys[i % keys.length], movesPlayed[i % keys.length]);
+			}
+			double nanos = (double) (System.nanoTime() - lookupStart) / LOOKUPS;
+
+			Connect4Solver solver = new Connect4Solver(size);
+			int checked = 0;
+			for (Connect4BitBoard position : sample.subList(0, 100)){
+				int solved = Integer.signum(solver.value(position.getCurrent(), position.getMask(), position.getMovesPlayed()));
+				if (database.lookup(position) != Connect4EndgameDatabase.DRAW + solved){
+					System.out.println("FAILED: the database and the solver disagree after " + position.getMovesPlayed()
+							+ " moves");
+					System.exit(1);
+				}
+				checked++;
+			}
+
+			System.out.printf("lookup: %.0fns (checksum %d); %d positions agree with the solver%n", nanos, sum, checked);
+		}
+	}
+}
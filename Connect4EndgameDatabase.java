@@ -0,0 +1,240 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connect4EndgameDatabase.java
+ *
+ * Reads an endgame database written by Connect4EndgameBuilder: the exact
+ * value (win, draw or loss for the player to move) of every position that
+ * can be reached with at most a given number of empty slots and where the
+ * game isn't over. The file is memory-mapped, and a lookup reads a handful
+ * of longs whatever the size of the database.
+ *
+ * Positions are grouped by moves played. Each group has a minimal perfect
+ * hash of its canonical keys (see Connect4BitBoard.getCanonicalKey), which
+ * numbers the n positions 0 to n-1 without storing the keys, and a value
+ * of 2 bits per position under that number. The hash is a cascade of bit
+ * arrays (as in BBHash): a key goes to a slot in the first array; keys that
+ * landed alone set their bit, and the rest go on to the next, smaller,
+ * array. A key's number is the count of set bits before its own, kept per
+ * 512 bits so that counting is a few popcounts. The hash only knows the
+ * positions it was built from; any other key gets an arbitrary answer, so
+ * only positions the database covers (see covers) may be looked up, and
+ * every position reachable in a game is one of them.
+ *
+ * File layout (big-endian):
+ *   header:    magic (long), columns (int), rows (int), first moves played
+ *              (int), last moves played (int), then for each number of moves
+ *              played the offset of its group (long)
+ *   group:     positions (long), hash levels (long), for each level: bits
+ *              (long), offset of the bit array (long), offset of the counts
+ *              (long), number of the level's first position (long);
+ *              then the offset of the values (long), all offsets from the
+ *              start of the group
+ *   bit array: longs, bit i of the level is bit (i % 64) of long i / 64
+ *   counts:    ints, set bits of the level before every 512 bits
+ *   values:    longs of 32 values, value i in bits 2 * (i % 32) and up
+ */
+
+public class Connect4EndgameDatabase implements Closeable {
+	public static final long MAGIC = 0x43344547_44423031L; // "C4EGDB01"
+	public static final int HEADER_SIZE = 24; // then the group offsets
+
+	// values, for the player to move; ordered so that the best move has the highest
+	public static final int UNKNOWN = 0; // not covered by the database
+	public static final int LOSS = 1;
+	public static final int DRAW = 2;
+	public static final int WIN = 3;
+
+	public static final int WORDS_PER_COUNT = 8; // longs of bits per count
+
+	private FileChannel channel;
+	private MappedByteBuffer data;
+
+	private Connect4BoardSize size;
+	private int firstPly;
+	private int lastPly;
+
+	/**
+	 * Map a database file
+	 * @param path the database file
+	 * @throws IOException if the file can't be read or isn't an endgame database
+	 */
+	public Connect4EndgameDatabase(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		if (channel.size() > Integer.MAX_VALUE){
+			channel.close();
+			throw new IOException("Endgame database is too large to map: " + path);
+		}
+
+		data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		data.order(ByteOrder.BIG_ENDIAN);
+
+		try {
+			if (channel.size() < HEADER_SIZE || data.getLong(0) != MAGIC){
+				throw new IOException("Not an endgame database: " + path);
+			}
+
+			size = Connect4BoardSize.of(data.getInt(8), data.getInt(12));
+			firstPly = data.getInt(16);
+			lastPly = data.getInt(20);
+
+			if (!size.fitsOneLong() || firstPly < 0 || lastPly != size.getSlots() - 1 || firstPly > lastPly
+					|| channel.size() < HEADER_SIZE + 8L * (lastPly - firstPly + 1)){
+				throw new IOException("Not an endgame database: " + path);
+			}
+		} catch (IOException | IllegalArgumentException e){
+			channel.close();
+			throw (e instanceof IOException) ? (IOException) e : new IOException("Not an endgame database: " + path, e);
+		}
+	}
+
+	/**
+	 * Gets the board size the database is for
+	 * @return the size
+	 */
+	public Connect4BoardSize getSize(){
+		return size;
+	}
+
+	/**
+	 * Gets the most empty slots a position in the database has
+	 * @return the number of empty slots
+	 */
+	public int getEmptySlots(){
+		return size.getSlots() - firstPly;
+	}
+
+	/**
+	 * Gets the number of positions with a number of moves played
+	 * @param movesPlayed moves played, firstPly to the last move
+	 * @return the position count
+	 */
+	public long positions(int movesPlayed){
+		return data.getLong(group(movesPlayed));
+	}
+
+	/**
+	 * Does the database hold this position?
+	 * @param state a position where the game isn't over
+	 * @return true if it has few enough empty slots, on the database's board size
+	 */
+	public boolean covers(Connect4BitBoard state){
+		return state.getSize() == size && state.getMovesPlayed() >= firstPly;
+	}
+
+	/**
+	 * Look up a position
+	 * @param state a position where the game isn't over
+	 * @return WIN, DRAW or LOSS for the player to move, UNKNOWN if the database doesn't cover it
+	 */
+	public int lookup(Connect4BitBoard state){
+		if (!covers(state)){
+			return UNKNOWN;
+		}
+		return lookup(state.getCanonicalKey(), state.getMovesPlayed());
+	}
+
+	/**
+	 * Look up a position by its canonical key; the position must be covered
+	 * (see covers), or the answer means nothing
+	 *
+	 * @param key the canonical key
+	 * @param movesPlayed moves played in the position
+	 * @return WIN, DRAW or LOSS for the player to move, UNKNOWN if the key isn't found
+	 */
+	public int lookup(long key, int movesPlayed){
+		return value(data, group(movesPlayed), key);
+	}
+
+	/**
+	 * @return the offset of the group of positions with a number of moves played
+	 */
+	private int group(int movesPlayed){
+		return (int) data.getLong(HEADER_SIZE + 8 * (movesPlayed - firstPly));
+	}
+
+	/**
+	 * Number a key with a group's minimal perfect hash
+	 *
+	 * @param data the file, or a buffer holding a group laid out the same way
+	 * @param group offset of the group
+	 * @param key the canonical key
+	 * @return the key's number, -1 if it fell through every level
+	 */
+	static long index(ByteBuffer data, int group, long key){
+		int levels = (int) data.getLong(group + 8);
+
+		for (int level = 0; level < levels; level++){
+			int header = group + 16 + 32 * level;
+			long slot = slot(key, level, data.getLong(header));
+			int wordIndex = (int) (slot >>> 6);
+
+			int bitArray = group + (int) data.getLong(header + 8);
+			long word = data.getLong(bitArray + 8 * wordIndex);
+			if ((word & (1L << slot)) == 0){
+				continue; // collided here, so it went on to the next level
+			}
+
+			// set bits before the slot: the count up to its block, then the longs up to its own
+			int block = wordIndex / WORDS_PER_COUNT;
+			long rank = data.getInt(group + (int) data.getLong(header + 16) + 4 * block);
+			for (int w = block * WORDS_PER_COUNT; w < wordIndex; w++){
+				rank += Long.bitCount(data.getLong(bitArray + 8 * w));
+			}
+			rank += Long.bitCount(word & ((1L << slot) - 1));
+
+			return data.getLong(header + 24) + rank;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets a position's value from a group
+	 *
+	 * @param data the file, or a buffer holding a group laid out the same way
+	 * @param group offset of the group
+	 * @param key the canonical key
+	 * @return WIN, DRAW or LOSS for the player to move, UNKNOWN if the key isn't found
+	 */
+	static int value(ByteBuffer data, int group, long key){
+		long index = index(data, group, key);
+		if (index < 0){
+			return UNKNOWN;
+		}
+
+		int values = group + (int) data.getLong(group + 16 + 32 * (int) data.getLong(group + 8));
+		long word = data.getLong(values + 8 * (int) (index >>> 5));
+		return (int) (word >>> (2 * (index & 31))) & 3;
+	}
+
+	/**
+	 * Where a key goes in a level of the hash
+	 *
+	 * @param key the canonical key
+	 * @param level the level
+	 * @param bits number of bits in the level
+	 * @return the slot, 0 to bits - 1
+	 */
+	static long slot(long key, int level, long bits){
+		// murmur3's finalizer, seeded by the level
+		long hash = key + (level + 1) * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return Long.remainderUnsigned(hash, bits);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Connect4Evaluator.java
+ * 
+ * Static evaluation used by the computer player at the leaves of its
+ * game tree search.
+ */
+
+public interface Connect4Evaluator {
+
+	/**
+	 * Evaluates a position from the view of the player who just moved
+	 * (so the mover's good positions are positive, as with grabEvalValue)
+	 * @param state the position, which must not be changed
+	 * @return the evaluation
+	 */
+	public int evaluate(Connect4BitBoard state);
+
+	/**
+	 * The value of having just won the game; must beat any evaluation
+	 * @return the value of a win
+	 */
+	public int winValue();
+
+	/**
+	 * The window weights the boards searched with this evaluator keep
+	 * their evaluation value (grabEvalValue) with
+	 * @return the weights
+	 */
+	public default Connect4Weights getWeights(){
+		return Connect4Weights.DEFAULT;
+	}
+}
@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Connect4EvaluatorBenchmark.java
+ * 
+ * Compares evaluators by how deep the search has to look before it finds
+ * a winning move. The test set is random positions that the solver proves
+ * are wins for the player to move, through one move only, among at least
+ * four legal moves, and where no evaluator finds that move by searching
+ * SHALLOW_DEPTH or less, so that the win takes search to see. A move
+ * counts as found when it is that move. Prints how many positions each
+ * evaluator has found by each depth, then the totals.
+ * 
+ * Usage: java Connect4EvaluatorBenchmark [positions] [maxDepth] [seed]
+ */
+
+public class Connect4EvaluatorBenchmark {
+	private static final int SHALLOW_DEPTH = 2; // positions found this shallow don't tell evaluators apart
+
+	public static void main(String[] args){
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+		Connect4Evaluator[] evaluators = {new Connect4WindowEvaluator(), new Connect4ThreatEvaluator()};
+
+		Connect4Solver solver = new Connect4Solver();
+		List<Connect4BitBoard> positions = new ArrayList<Connect4BitBoard>();
+		List<boolean[]> winningMoves = new ArrayList<boolean[]>();
+		findWins(solver, evaluators, new Random(seed), count, positions, winningMoves);
+
+		System.out.println(positions.size() + " won positions no evaluator finds by depth " + SHALLOW_DEPTH
+				+ ", searched to depth " + maxDepth);
+
+		StringBuilder header = new StringBuilder("found by depth           ");
+		for (int depth = SHALLOW_DEPTH + 1; depth <= maxDepth; depth++){
+			header.append(String.format("%5d", depth));
+		}
+		System.out.println(header);
+
+		String[] totals = new String[evaluators.length];
+		for (int e = 0; e < evaluators.length; e++){
+			int[] foundAt = new int[maxDepth + 1];
+			int found = 0;
+			int depthSum = 0;
+			long[] nodes = new long[1];
+
+			for (int i = 0; i < positions.size(); i++){
+				int depth = depthFound(player(evaluators[e]), positions.get(i), winningMoves.get(i), maxDepth, nodes);
+				if (depth >= 0){
+					foundAt[depth]++;
+					found++;
+					depthSum += depth;
+				}
+			}
+
+			String name = evaluators[e].getClass().getSimpleName();
+			StringBuilder line = new StringBuilder(String.format("%-25s", name));
+			int foundSoFar = 0;
+			for (int depth = SHALLOW_DEPTH + 1; depth <= maxDepth; depth++){
+				foundSoFar += foundAt[depth];
+				line.append(String.format("%5d", foundSoFar));
+			}
+			System.out.println(line);
+
+			totals[e] = String.format("%-25s %6d %11.2f %12d", name, found,
+					found == 0 ? 0.0 : (double) depthSum / found, nodes[0]);
+		}
+
+		System.out.println();
+		System.out.println("evaluator                  found  mean depth        nodes");
+		for (String total : totals){
+			System.out.println(total);
+		}
+	}
+
+	/**
+	 * Make a player for one evaluator, with a table of its own
+	 */
+	private static ComputerConnect4Player player(Connect4Evaluator evaluator){
+		ComputerConnect4Player player = new ComputerConnect4Player("Computer", 0,
+				new Connect4TranspositionTable(16, Connect4TranspositionTable.Replacement.DEPTH_PREFERRED));
+		player.setEvaluator(evaluator);
+		return player;
+	}
+
+	/**
+	 * Search deeper and deeper, with an empty table each time, until the
+	 * search picks a winning move
+	 * 
+	 * @param player the player to search with
+	 * @param state the position
+	 * @param wins which columns keep the win
+	 * @param maxDepth deepest search to try
+	 * @param nodes receives the nodes searched, added to nodes[0]
+	 * @return the shallowest depth that picks a winning move, -1 if none to maxDepth does
+	 */
+	private static int depthFound(ComputerConnect4Player player, Connect4BitBoard state, boolean[] wins,
+			int maxDepth, long[] nodes){
+		for (int depth = 0; depth <= maxDepth; depth++){
+			player.getTable().clear();
+			long result = player.search(state, depth);
+			nodes[0] += player.getNodeCount();
+
+			if (wins[ComputerConnect4Player.moveOf(result)]){
+				return depth;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Play random games and keep positions, from the middle of the game,
+	 * where the player to move can force a win, not right away, and with
+	 * only one move, that no evaluator finds by SHALLOW_DEPTH
+	 * 
+	 * @param solver solver to prove the wins
+	 * @param evaluators the evaluators that must all miss the win at shallow depths
+	 * @param random source of the random moves
+	 * @param count number of positions wanted
+	 * @param positions receives the positions
+	 * @param winningMoves receives, for each position, which columns keep the win
+	 */
+	private static void findWins(Connect4Solver solver, Connect4Evaluator[] evaluators, Random random, int count,
+			List<Connect4BitBoard> positions, List<boolean[]> winningMoves){
+		int slots = Connect4State.ROWS * Connect4State.COLS;
+
+		while (positions.size() < count){
+			Connect4BitBoard state = new Connect4BitBoard(0, new Player[2]);
+			int length = 16 + random.nextInt(8);
+
+			for (int i = 0; i < length && !state.gameIsOver(); i++){
+				int column;
+				do {
+					column = random.nextInt(Connect4State.COLS);
+				} while (!state.isValidMove(column));
+				state.makeMove(column);
+			}
+
+			long current = state.getCurrent();
+			long mask = state.getMask();
+			int moves = state.getMovesPlayed();
+
+			if (state.gameIsOver() || (Connect4BitBoard.winningSlots(current, mask)
+					& Connect4BitBoard.possibleMoves(mask)) != 0){
+				continue; // over, or won in one move: nothing to find
+			}
+			if (solver.value(current, mask, moves) <= 0){
+				continue;
+			}
+
+			boolean[] wins = new boolean[Connect4State.COLS];
+			int winCount = 0;
+			int legal = 0;
+			for (int column = 0; column < Connect4State.COLS; column++){
+				long move = Connect4BitBoard.possibleMoves(mask) & Connect4BitBoard.columnMask(column);
+
+				if (move != 0 && moves + 1 < slots){
+					long childCurrent = current ^ mask;
+					long childMask = mask | move;
+					wins[column] = solver.value(childCurrent, childMask, moves + 1) < 0;
+					legal++;
+				}
+				if (wins[column]){
+					winCount++;
+				}
+			}
+
+			if (winCount != 1 || legal < 4){
+				continue;
+			}
+			if (foundShallow(evaluators, state, wins)){
+				continue;
+			}
+
+			positions.add(state);
+			winningMoves.add(wins);
+		}
+	}
+
+	/**
+	 * Does any evaluator find the winning move by SHALLOW_DEPTH?
+	 */
+	private static boolean foundShallow(Connect4Evaluator[] evaluators, Connect4BitBoard state, boolean[] wins){
+		for (Connect4Evaluator evaluator : evaluators){
+			if (depthFound(player(evaluator), state, wins, SHALLOW_DEPTH, new long[1]) >= 0){
+				return true;
+			}
+		}
+		return false;
+	}
+}
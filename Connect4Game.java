@@ -5,17 +5,25 @@ import java.util.Arrays;
  * 
  * Represents the state of the Connect 4 game.
  * 
+ * The board can be any Connect4BoardSize. Every four-in-row line on it is
+ * numbered, and each cell knows the lines running through it (3 to 13 on the
+ * standard board). The game keeps how many checkers each
+ * player has in every line, so a move only has to look at the lines through
+ * its cell to update the evaluation and to see whether it won.
+ * 
  * @author Delos Chang
  *
  */
 
 public class Connect4Game implements Connect4State{
+	private Connect4BoardSize size;
 	private char[][] board;
 	private Player [] players;
 	private int playerToMoveNum; // 0 or 1 for which player to go
 
-	private int latestRow = -1; // latest row added to by makeMove method
-	private int latestCol = -1; // latest column added to by makeMove method
+	private int[][] linesThroughCell; // the size's lines through each cell (row * columns + column)
+	private int[][] lineCounts; // checkers in each line, by index into CHECKERS
+	private boolean won; // did the last move make a four-in-row?
 
 	private int movesDone; // number of moves made
 
@@ -30,7 +38,19 @@ public class Connect4Game implements Connect4State{
 	 * @param aView the view in the model-view-controller model
 	 */
 	public Connect4Game(int playerNum, Player [] thePlayers){
-		board = new char[ROWS][COLS];
+		this(Connect4BoardSize.STANDARD, playerNum, thePlayers);
+	}
+
+	/**
+	 * Constructs game in initial state on a board of any size
+	 * 
+	 * @param boardSize the size of the board
+	 * @param playerNum the player whose move it is
+	 * @param thePlayers the player objects
+	 */
+	public Connect4Game(Connect4BoardSize boardSize, int playerNum, Player [] thePlayers){
+		setSize(boardSize);
+		board = new char[size.getRows()][size.getColumns()];
 
 		// fill board with empty slots
 		for (char[] row : board){
@@ -54,12 +74,13 @@ public class Connect4Game implements Connect4State{
 	 * @param unblockedTotal a total int evaluation of unblocked four-in-row for opp and computer
 	 */
 	public Connect4Game(int playerNum, Player[] thePlayers, char[][] initialBoard, int movesMade, int unblockedTotal){
-		// Initialize board with rows and columns
-		board = new char[ROWS][COLS];
+		// Initialize board with rows and columns, of whatever size the board is
+		setSize(Connect4BoardSize.of(initialBoard[0].length, initialBoard.length));
+		board = new char[size.getRows()][size.getColumns()];
 
 		// Replicate the board
-		for (int row = 0; row < ROWS; row++){
-			for (int column = 0; column < COLS; column++){
+		for (int row = 0; row < size.getRows(); row++){
+			for (int column = 0; column < size.getColumns(); column++){
 				board[row][column] = initialBoard[row][column];
 			}
 		}
@@ -68,18 +89,80 @@ public class Connect4Game implements Connect4State{
 		playerToMoveNum = playerNum;
 		players = thePlayers;
 
+		// count the checkers in every line
+		int[][] lines = size.getLines();
+		for (int line = 0; line < lines.length; line++){
+			for (int cell : lines[line]){
+				char checker = board[cell / size.getColumns()][cell % size.getColumns()];
+
+				for (int player = 0; player < 2; player++){
+					if (checker == CHECKERS[player]){
+						lineCounts[player][line]++;
+						won = won || lineCounts[player][line] == 4;
+					}
+				}
+			}
+		}
+
 		// Replicate the evaluation value
 		movesDone = movesMade;
 		evalValue = unblockedTotal;
 	}
 
+	/**
+	 * Set up the line tables for a board size
+	 * 
+	 * @param boardSize the size of the board
+	 */
+	private void setSize(Connect4BoardSize boardSize){
+		size = boardSize;
+		linesThroughCell = size.getLinesThroughCell();
+		lineCounts = new int[2][size.getLines().length];
+	}
+
+
+	/**
+	 * Construct the game reached by playing a sequence of moves from the
+	 * initial state, with player 0 to move first.
+	 * 
+	 * @param moves the columns played, one digit per move (e.g. "3342")
+	 * @param thePlayers the player objects
+	 * @return the game after those moves
+	 */
+	public static Connect4Game fromMoves(String moves, Player[] thePlayers){
+		return fromMoves(moves, thePlayers, Connect4BoardSize.STANDARD);
+	}
+
+	/**
+	 * Construct the game reached by playing a sequence of moves on a board of
+	 * any size (up to 10 columns, so that each move is one digit)
+	 * 
+	 * @param moves the columns played, one digit per move
+	 * @param thePlayers the player objects
+	 * @param boardSize the size of the board
+	 * @return the game after those moves
+	 */
+	public static Connect4Game fromMoves(String moves, Player[] thePlayers, Connect4BoardSize boardSize){
+		Connect4Game game = new Connect4Game(boardSize, 0, thePlayers);
+
+		for (int i = 0; i < moves.length(); i++){
+			int column = moves.charAt(i) - '0';
+
+			if (column < 0 || column >= boardSize.getColumns() || !game.isValidMove(column) || game.gameIsOver()){
+				throw new IllegalArgumentException("Bad move " + moves.charAt(i) + " at " + i + " in " + moves);
+			}
+			game.makeMove(column);
+		}
+
+		return game;
+	}
 
 	@Override
 	/**
 	 * Gets a 2-D array representing the board.
 	 * The first subscript is the row number and the second the column number.
-	 * The bottom of the board is row 0 and the top is row ROWS-1.
-	 * The left side of the board is column 0 and the right side is column COLS-1.
+	 * The bottom of the board is row 0 and the top is row getSize().getRows()-1.
+	 * The left side of the board is column 0 and the right side is column getSize().getColumns()-1.
 	 * 
 	 * @return the board
 	 */
@@ -87,6 +170,11 @@ public class Connect4Game implements Connect4State{
 		return board;
 	}
 
+	@Override
+	public Connect4BoardSize getSize() {
+		return size;
+	}
+
 	@Override
 	public Player[] getPlayers() {
 		return players;
@@ -140,17 +228,24 @@ public class Connect4Game implements Connect4State{
 			// Switch evaluation for player and computer 
 			evalValue = -1 * evalValue;
 
-			// Evaluation steps
-			evalValue = evalValue - evalAdjust(openRow, col); // adjust the evaluation for the move
+			// Evaluation steps: only the lines through the new checker change
+			int[] playerCounts = lineCounts[playerToMoveNum]; // the new checker is CHECKERS[playerToMoveNum]
+			int[] opponentCounts = lineCounts[1 - playerToMoveNum];
+
+			for (int line : linesThroughCell[openRow * size.getColumns() + col]){
+				evalValue = evalValue - applyWeights(playerCounts[line], opponentCounts[line], 0);
+				playerCounts[line]++;
+				evalValue = applyWeights(playerCounts[line], opponentCounts[line], evalValue);
+
+				if (playerCounts[line] == 4){
+					won = true;
+				}
+			}
+
 			board[openRow][col] = CHECKERS[getPlayerNum()]; // add the checker
-			evalValue = evalValue + evalAdjust(openRow, col); // reevaluate with new piece in place
 
 			// Increment moves done
 			movesDone++;
-
-			// Update latest row/cols
-			latestRow = openRow;
-			latestCol = col;
 		} else { 
 			// because it was not a valid move
 			throw new IllegalStateException("Column is full!");
@@ -165,7 +260,7 @@ public class Connect4Game implements Connect4State{
 	 */
 	private int findOpenRow(int col){
 		// find the first row that isn't filled
-		for (int i = 0; i < ROWS; i++){
+		for (int i = 0; i < size.getRows(); i++){
 			if (board[i][col] == EMPTY){
 				return i;
 			}
@@ -182,7 +277,7 @@ public class Connect4Game implements Connect4State{
 	 */
 	private int findTop(int col){
 		// find the top of the closed row
-		int row = ROWS - 1;
+		int row = size.getRows() - 1;
 
 		while (board[row][col] == EMPTY && row > 0){
 			row--;
@@ -193,102 +288,6 @@ public class Connect4Game implements Connect4State{
 	}
 
 
-	/**
-	 * Calibrates the position after a move is made (called with makeMove)
-	 * 
-	 * @param openRow the row in which the move will be made (the first open row in a col)
-	 * @param column the column in which the move was made
-	 * @return a new evaluation value
-	 */
-	private int evalAdjust(int openRow, int column){
-		// declare offsets for position evaluation
-		int leftOffset, rightOffset, leftBound, rightBound;
-
-		// grab the players
-		char opponent = CHECKERS[(1 - this.playerToMoveNum)];
-		char mainPlayer = CHECKERS[this.playerToMoveNum];
-
-		leftBound = Math.max(column - 3, 0);
-		rightBound = Math.min(6, column + 3);
-
-		// evaluate horizontal possibilities
-		int horizValue = evalPossibilities(mainPlayer, opponent, leftBound, rightBound,
-				openRow, 0);
-
-		// declare offset values for the diagonal
-		leftOffset = Math.min(Math.min(openRow, column), 3);
-		rightOffset = Math.min(Math.min(5 - openRow, 6 - column), 3);
-		int offsetOpenRow = openRow - leftOffset;
-		int offsetRightColumn = column + rightOffset;
-		int offsetLeftColumn = column - leftOffset;
-		int diagonalDelta = 1;
-
-
-		// evaluate diagonal 1
-		int diagValueOne = evalPossibilities(mainPlayer, opponent, offsetLeftColumn, offsetRightColumn, 
-				offsetOpenRow, diagonalDelta);
-
-		// change offset values for next diagonal
-		leftOffset = Math.min(Math.min(5 - openRow, column), 3);
-		rightOffset = Math.min(Math.min(openRow, 6 - column), 3);
-
-		offsetOpenRow = openRow + leftOffset;
-		offsetRightColumn = column + rightOffset;
-		offsetLeftColumn = column - leftOffset;
-		diagonalDelta = -1;
-
-		// evaluate diagonal 2 (opp direction)
-		int diagValueTwo = evalPossibilities(mainPlayer, opponent, offsetLeftColumn, 
-				offsetRightColumn, offsetOpenRow, diagonalDelta);
-
-		// evaluate vertical Connect 4 possibilities
-		int verticalValue = connect4Verticals(mainPlayer, opponent, openRow, column);
-
-		// now return the total value of horizontal, vertical and diagonals
-		int sum = verticalValue + horizValue + diagValueOne + diagValueTwo;
-
-		return sum;
-	}
-
-	/**
-	 * Method for evaluating the Connect 4 verticals and assigning them based on 
-	 * their strength i.e. how close they form a connect 4
-	 * 
-	 * @param mainPlayer the player whose turn it is
-	 * @param opponent the player's opponent
-	 * @param row row we are checking
-	 * @param column column we are checking
-	 * @return sum int that is a representation of the position strength
-	 */
-	private int connect4Verticals(char mainPlayer, char opponent, int row, int column){
-		// the bottom of a connect 4 is minimum row 0 or 3 checkers down
-		int possibleBottom;
-		possibleBottom = Math.max(0, row - 3);
-		int possibleTop = possibleBottom + 4;
-
-		// counters to calculate eval values
-		int playerCount = 0;
-		int opponentCount = 0;
-		int verticalValue = 0;
-
-		// Check for the Connect 4 from the bottom up
-		for (int checkRow = possibleBottom; checkRow < possibleTop; checkRow++){
-			if (board[checkRow][column] == opponent){
-				opponentCount = opponentCount + 1;
-			} else if (board[checkRow][column] == mainPlayer){
-				playerCount = playerCount + 1;
-			}
-		}
-
-		// if there isn't the other player's piece in the way, weight by position strength
-		verticalValue = applyWeights(playerCount, opponentCount, verticalValue);
-
-		// return this sum for the analysis of the verticals
-		return verticalValue;
-	}
-
-
-
 	/**
 	 * Public helper method to apply weights after looking at Connect 4
 	 * possibilities
@@ -300,97 +299,9 @@ public class Connect4Game implements Connect4State{
 	 */
 	public static int applyWeights(int playerCount, int opponentCount, int sum){
 		// apply the weights based on the previous connect 4 possibilities
-		if (playerCount == 0){
-			sum = sum - ComputerConnect4Player.HOW_GOOD[opponentCount];
-		} else if (opponentCount == 0) {
-			sum = sum + ComputerConnect4Player.HOW_GOOD[playerCount];
-		}
-
-		return sum;
+		return Connect4Weights.DEFAULT.apply(playerCount, opponentCount, sum);
 	}
 
-	/**
-	 * Evaluates the possibilities for diagonal and horizontal connect fours
-	 * 
-	 * @param mainPlayer the main player
-	 * @param opponent the other player
-	 * @param leftBound the leftside bound of the connect 4
-	 * @param rightBound the rightside bound of the connect 4
-	 * @param currentRow the open row that the move piece would go into
-	 * @param offsetRow the offset for diagonals (1 or -1), 0 for horizontals
-	 * @return
-	 */
-	private int evalPossibilities(char mainPlayer, char opponent, int leftBound, 
-			int rightBound, int currentRow, int offsetRow){
-
-		// declare local variables
-		int boundDiff = rightBound - leftBound;
-		int opponentCount = 0;
-		int playerCount = 0;
-		int sum = 0;
-		int checkColumn = leftBound;
-		int checkRow = currentRow; 
-
-		// -4 or 4 depending on which type of diagonal
-		// 0 if checking horizontal
-		int diagonalDelta = offsetRow * 4;
-
-		if (boundDiff < 3) {
-			return 0;
-		}
-
-		// ++ for row and column for diagonals
-		// ++ for column for horizontals
-		for (checkColumn = checkColumn; 
-				checkColumn <= leftBound + 3;
-				checkRow += offsetRow) {
-
-			// check whose pieces belong to whom
-			if (board[checkRow][checkColumn] == opponent){
-				opponentCount = opponentCount + 1;
-			} else if (board[checkRow][checkColumn] == mainPlayer){
-				playerCount = playerCount + 1;
-			}
-			checkColumn = checkColumn + 1;
-
-		}
-
-		// apply the weights based on the previous connect 4 possibilities
-		sum = applyWeights(playerCount, opponentCount, sum);
-
-		// ++ for row and column for diagonals
-		// ++ for column for horizontals
-		for (checkColumn = checkColumn;
-				checkColumn <= rightBound;
-				checkRow += offsetRow){
-			if (board[(checkRow - diagonalDelta)][(checkColumn - 4)] == opponent){
-				opponentCount = opponentCount -1;
-			} 
-
-			if (board[(checkRow - diagonalDelta)][(checkColumn - 4)] == mainPlayer) {
-				playerCount = playerCount -1;
-			}
-
-			if (board[checkRow][checkColumn] == opponent){
-				opponentCount = opponentCount + 1;
-			}
-
-			if (board[checkRow][checkColumn] == mainPlayer) {
-				playerCount = playerCount + 1;
-			}
-
-			// apply the weights 
-			sum = applyWeights(playerCount, opponentCount, sum);
-
-			checkColumn = checkColumn + 1;
-		}
-
-
-		//	    System.out.println("total value is " + sum + "\n");
-		return sum;
-	}
-
-
 	/**
 	 * Undo the move to avoid creating a new state each time
 	 * 
@@ -403,6 +314,12 @@ public class Connect4Game implements Connect4State{
 		// change back to empty
 		board[row][column] = EMPTY;
 
+		// the checker taken back was the last player's
+		for (int line : linesThroughCell[row * size.getColumns() + column]){
+			lineCounts[playerToMoveNum][line]--;
+		}
+		won = false; // the game went on, so nobody had won before that move
+
 		// change other parameters to original
 		playerToMoveNum = 1 - playerToMoveNum;
 
@@ -417,7 +334,7 @@ public class Connect4Game implements Connect4State{
 	 * @return true if the column is full
 	 */
 	private boolean isColumnFull(int col) {
-		return !(board[ROWS - 1][col] == EMPTY);
+		return !(board[size.getRows() - 1][col] == EMPTY);
 	}
 
 	/**
@@ -426,84 +343,24 @@ public class Connect4Game implements Connect4State{
 	 */
 	@Override
 	public boolean isFull() {
-		return (movesDone == ROWS * COLS);
+		return (movesDone == size.getSlots());
 	}
 
 
-	/**
-	 * Evaluates four-in-row for game-over method
-	 * 
-	 * @param row latest row that a move was made on
-	 * @param column latest column that a move was made on
-	 * @param rowOffset a row offset to calculate different connect 4 possibilities
-	 * @param colOffset a row offset to calculate different connect 4 possibilities
-	 * @return boolean true if there is a win
-	 */
-	private boolean checkForFour(int row, int column,
-			int rowOffset, int colOffset){
-
-		int winCounter = 0; // counts to 4 for win
-
-		// Find opp ends for the possible Connect 4
-		int oppRow = 3 * rowOffset + row; 
-		int oppColumn = 3 * colOffset + column;
-
-		// conditions where Connect 4 is impossible
-		// less than 7 moves (counting both players)
-		// adjusted offset for row/col is < 0 or > maximum
-		if ( (movesDone < 7 ) || (oppRow >= ROWS) || (oppColumn >= COLS) ||
-				(oppRow < 0) || (oppColumn < 0) ||
-				(row < 0) || (column < 0) || 
-				(row >= ROWS) || (column >= COLS)){
-			return false;
-		}
-
-		for (int i = 1; i < 5; i++){
-			if (board[row][column] == CHECKERS[playerToMoveNum]){
-
-				winCounter++;
-			}
-
-			// Adjust offsets and look for the next piece 
-			// that would lead to a four-in-row.
-			row += rowOffset;
-			column += colOffset;
-		}
-
-		// Got a connect 4!
-		return (winCounter == 4);
-	}
-
 	/**
 	 * Decides if game is over
 	 * @return true iff the game is over
 	 */
 	@Override
 	public boolean gameIsOver() {
-		// Check if game is complete
-		if ( isFull() ){
-			return true;
-		}
-
-		// Check vertical four-in-row
-		if ( checkForFour(latestRow, latestCol, -1, 0)) return true;
-
-		for (int offset = 0; offset < 4; offset++){
-			// Check horizontal four-in-row
-			if ( checkForFour(latestRow, latestCol - offset, 0, 1)) return true;
-
-			// Check diagonal via lower right
-			if ( checkForFour(latestRow - offset, latestCol + offset, 1, -1)) return true;
-
-			// Check diagonal via upper right
-			if ( checkForFour(latestRow - offset, latestCol - offset, 1, 1)) return true;
-		}
-
-		return false;
+		return won || isFull();
 	}
 
 	/**
-	 * Test function to check the static evaluation function
+	 * Test function to check the incremental evaluation: after every move
+	 * (and an undo and redo of it), compare it with the bitboard's, which
+	 * sums all the windows from scratch (Connect4LineIndexCheck does the
+	 * same over many random games)
 	 * @param args
 	 */
 	public static void main(String[] args){
@@ -527,11 +384,11 @@ public class Connect4Game implements Connect4State{
 			gameOne.makeMove(column);
 
 			int new_eval = gameOne.grabEvalValue();
-			int compEval = ComputerConnect4Player.evaluate(gameTwo);
+			int fullEval = new Connect4BitBoard(gameTwo).grabEvalValue();
 			
-			System.out.println("The following evaluation numbers in the game should match.");
-			System.out.println("Player One " + new_eval);
-			System.out.println("Player Two " + compEval);
+			System.out.println("The incremental evaluation should match summing all the windows.");
+			System.out.println("Incremental  " + new_eval);
+			System.out.println("All windows  " + fullEval + (new_eval == fullEval ? "" : "  MISMATCH"));
 			view.display(gameOne);
 
 
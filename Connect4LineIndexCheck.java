@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Connect4LineIndexCheck.java
+ *
+ * Checks the line index of Connect4Game against scanning the whole board:
+ * plays random games, taking moves back now and then, and after every move
+ * compares the incremental evaluation with the sum over all windows (69 on
+ * the standard board) and with a bitboard making the same moves, and game
+ * over with a search of the board for four in a row. On boards of more than
+ * 64 bits this also checks the bitboard's two-long representation.
+ *
+ * Usage: java Connect4LineIndexCheck [games] [seed] [size]
+ */
+
+public class Connect4LineIndexCheck {
+	public static void main(String[] args){
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		Connect4BoardSize size = args.length > 2 ? Connect4BoardSize.parse(args[2]) : Connect4BoardSize.STANDARD;
+
+		Random random = new Random(seed);
+		Player[] players = new Player[2];
+		long positions = 0;
+
+		for (int g = 0; g < games; g++){
+			Connect4Game game = new Connect4Game(size, 0, players);
+			Connect4BitBoard bitBoard = new Connect4BitBoard(size, 0, players);
+
+			while (!game.gameIsOver()){
+				int column = random.nextInt(size.getColumns());
+				if (!game.isValidMove(column)){
+					continue;
+				}
+
+				int valueBefore = game.grabEvalValue();
+				game.makeMove(column);
+				bitBoard.makeMove(column);
+				check(game, bitBoard, g);
+				positions++;
+
+				// take a move back now and then, and compare with a game built from the board
+				if (game.getMovesPlayed() > 1 && random.nextInt(4) == 0){
+					game.undoMove(column, valueBefore);
+					bitBoard.undoMove(column, valueBefore);
+					Connect4Game rebuilt = new Connect4Game(game.getPlayerNum(), players, game.getBoard(),
+							game.getMovesPlayed(), game.grabEvalValue());
+					check(game, bitBoard, g);
+
+					if (game.gameIsOver() != rebuilt.gameIsOver()){
+						fail(game, g, "game over differs from the rebuilt game after undo");
+					}
+				}
+			}
+		}
+
+		System.out.println(positions + " positions in " + games + " games on " + size + ": OK");
+	}
+
+	/**
+	 * Compare the game's incremental values with scans of the whole board
+	 * and with the bitboard
+	 *
+	 * @param game the position after a move
+	 * @param bitBoard the same position, reached by the same moves
+	 * @param g which game, for the report
+	 */
+	private static void check(Connect4Game game, Connect4BitBoard bitBoard, int g){
+		char[][] board = game.getBoard();
+		int rows = board.length;
+		int columns = board[0].length;
+
+		// evaluation is from the view of the player who just moved
+		char mine = Connect4State.CHECKERS[game.getPlayerNum()];
+		char theirs = Connect4State.CHECKERS[1 - game.getPlayerNum()];
+
+		int value = 0;
+		boolean four = false;
+		int[][] directions = { {1, 0}, {0, 1}, {1, 1}, {-1, 1} };
+
+		for (int[] direction : directions){
+			for (int row = 0; row < rows; row++){
+				for (int column = 0; column < columns; column++){
+					int endRow = row + 3 * direction[0];
+					int endColumn = column + 3 * direction[1];
+					if (endRow < 0 || endRow >= rows || endColumn >= columns){
+						continue;
+					}
+
+					int mineCount = 0;
+					int theirCount = 0;
+					for (int i = 0; i < 4; i++){
+						char checker = board[row + i * direction[0]][column + i * direction[1]];
+						mineCount += checker == mine ? 1 : 0;
+						theirCount += checker == theirs ? 1 : 0;
+					}
+
+					value = Connect4Game.applyWeights(mineCount, theirCount, value);
+					four = four || mineCount == 4 || theirCount == 4;
+				}
+			}
+		}
+
+		if (game.grabEvalValue() != value){
+			fail(game, g, "evaluation " + game.grabEvalValue() + ", scanning all windows gives " + value);
+		}
+
+		int bitBoardValue = new Connect4BitBoard(game).grabEvalValue();
+		if (game.grabEvalValue() != bitBoardValue || bitBoard.grabEvalValue() != bitBoardValue){
+			fail(game, g, "evaluation " + game.grabEvalValue() + ", the bitboard gives " + bitBoardValue
+					+ " from scratch and " + bitBoard.grabEvalValue() + " move by move");
+		}
+
+		if (game.gameIsOver() != (four || game.isFull()) || bitBoard.gameIsOver() != game.gameIsOver()){
+			fail(game, g, "game over is " + game.gameIsOver() + ", scanning the board says " + (four || game.isFull())
+					+ ", the bitboard " + bitBoard.gameIsOver());
+		}
+
+		if (!Arrays.deepEquals(board, bitBoard.getBoard())
+				|| bitBoard.getKey() != new Connect4BitBoard(game).getKey()){
+			fail(game, g, "the bitboard's board or key differs from the game's");
+		}
+	}
+
+	/**
+	 * Print the position and stop
+	 */
+	private static void fail(Connect4Game game, int g, String message){
+		System.out.println("FAILED in game " + g + " after " + game.getMovesPlayed() + " moves: " + message);
+
+		char[][] board = game.getBoard();
+		for (int row = board.length - 1; row >= 0; row--){
+			System.out.println(new String(board[row]));
+		}
+		System.exit(1);
+	}
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect4LoadTest.java
+ *
+ * Load test for Connect4AnalysisServer: a number of clients each send
+ * /analyze requests one after another, cycling through the positions of
+ * Connect4Speedup, and the test reports throughput and the p50/p99 latency
+ * of the answered requests, along with how many were turned away busy.
+ *
+ * Usage: Connect4LoadTest [url] [clients] [requests] [depth]
+ *   e.g. Connect4LoadTest http://localhost:8044 16 2000 6
+ */
+
+public class Connect4LoadTest {
+	public static void main(String[] args) throws InterruptedException {
+		String url = args.length > 0 ? args[0] : "http://localhost:" + Connect4AnalysisServer.DEFAULT_PORT;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int requests = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int depth = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+
+		HttpClient http = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(2)).build();
+		long[] latencies = new long[requests];
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger answered = new AtomicInteger();
+		AtomicInteger busy = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+
+		for (int client = 0; client < clients; client++){
+			pool.execute(() -> {
+				int i;
+				while ((i = next.getAndIncrement()) < requests){
+					String moves = Connect4Speedup.POSITIONS[i % Connect4Speedup.POSITIONS.length];
+					HttpRequest request = HttpRequest.newBuilder(
+							URI.create(url + "/analyze?moves=" + moves + "&depth=" + depth)).build();
+
+					long sent = System.nanoTime();
+					try {
+						int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+
+						if (status == 200){
+							latencies[answered.getAndIncrement()] = System.nanoTime() - sent;
+						} else if (status == 503){
+							busy.incrementAndGet();
+						} else {
+							failed.incrementAndGet();
+						}
+					} catch (IOException e){
+						failed.incrementAndGet();
+					} catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			});
+		}
+
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.DAYS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long[] sorted = Arrays.copyOf(latencies, answered.get());
+		Arrays.sort(sorted);
+
+		System.out.println(requests + " requests from " + clients + " clients at depth " + depth
+				+ String.format(" in %.1fs", seconds));
+		System.out.println(String.format("answered %d (%.0f/s), busy %d, failed %d",
+				sorted.length, sorted.length / seconds, busy.get(), failed.get()));
+		if (sorted.length > 0){
+			System.out.println(String.format("latency p50 %.2fms, p99 %.2fms, max %.2fms",
+					percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6));
+		}
+
+		System.exit(0); // the HTTP client's threads would keep the JVM up
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted values
+	 */
+	private static long percentile(long[] sorted, int percent){
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(rank - 1, 0)];
+	}
+}
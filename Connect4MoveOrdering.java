@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * Connect4MoveOrdering.java
+ * 
+ * Decides the order in which the search tries moves, without playing them:
+ *   1. the best move stored in the transposition table
+ *   2. the killer moves of this ply: the last two moves that caused a
+ *      cutoff in a sibling position
+ *   3. the rest center first (Connect4BoardSize.getColumnOrder); between the two columns
+ *      the same distance from the center, by history score: how often,
+ *      and how deep, dropping a checker of this player into that slot has
+ *      caused cutoffs
+ * Letting the history score override the center-first order outright
+ * searched more nodes, so it only breaks these ties.
+ * 
+ * Each search thread needs its own ordering.
+ */
+
+public class Connect4MoveOrdering {
+	// scores that put these moves ahead of all others
+	private static final int TABLE_MOVE = Integer.MAX_VALUE;
+	private static final int FIRST_KILLER = Integer.MAX_VALUE - 1;
+	private static final int SECOND_KILLER = Integer.MAX_VALUE - 2;
+
+	// each step closer to the center outweighs any history score
+	private static final int CENTER_STEP = 1 << 25;
+	private static final int MAX_HISTORY = 1 << 24;
+
+	// sized for the biggest board, so one ordering serves every board size
+	private final int[][] killers = new int[Connect4BoardSize.MAX_SLOTS + 1][2]; // by moves played
+	private final int[][] history = new int[2][Connect4BoardSize.MAX_BITS]; // by player, slot
+
+	public Connect4MoveOrdering(){
+		clearKillers();
+	}
+
+	/**
+	 * Fill a move list in the order to try the moves
+	 * 
+	 * @param state the current state of the game
+	 * @param tableMove move to try before all others (-1 for none)
+	 * @param movesArray filled with all columns, best first; full columns come last
+	 *                   (entries past the number of columns are left alone)
+	 * @param values scratch space for the ordering scores
+	 */
+	public void order(Connect4BitBoard state, int tableMove, int[] movesArray, int[] values){
+		int[] plyKillers = killers[state.getMovesPlayed()];
+		int[] playerHistory = history[state.getPlayerNum()];
+		Connect4BoardSize size = state.getSize();
+		int[] movesByCol = size.getColumnOrder();
+		int lastColumn = size.getColumns() - 1;
+
+		for (int i = 0; i < movesByCol.length; i++){
+			int column = movesByCol[i];
+			int value;
+
+			if (!state.isValidMove(column)){
+				value = Integer.MIN_VALUE;
+			} else if (column == tableMove){
+				value = TABLE_MOVE;
+			} else if (column == plyKillers[0]){
+				value = FIRST_KILLER;
+			} else if (column == plyKillers[1]){
+				value = SECOND_KILLER;
+			} else {
+				// steps in from the edge (boards with an even number of columns have two center columns)
+				int steps = (lastColumn - Math.abs(2 * column - lastColumn)) / 2;
+				value = steps * CENTER_STEP + playerHistory[slot(state, column)];
+			}
+
+			// insertion sort, keeping center-first order between equals
+			int position = i;
+			while (position > 0 && values[position - 1] < value){
+				movesArray[position] = movesArray[position - 1];
+				values[position] = values[position - 1];
+				position--;
+			}
+			movesArray[position] = column;
+			values[position] = value;
+		}
+	}
+
+	/**
+	 * Record a move that caused a cutoff
+	 * 
+	 * @param state the position the move was played from
+	 * @param column the move
+	 * @param depth the remaining depth of the search at that position
+	 */
+	public void cutoff(Connect4BitBoard state, int column, int depth){
+		int[] plyKillers = killers[state.getMovesPlayed()];
+		if (plyKillers[0] != column){
+			plyKillers[1] = plyKillers[0];
+			plyKillers[0] = column;
+		}
+
+		// deep cutoffs say more than shallow ones
+		int[] playerHistory = history[state.getPlayerNum()];
+		int slot = slot(state, column);
+		playerHistory[slot] += (depth + 1) * (depth + 1);
+
+		// keep the scores below one step towards the center
+		if (playerHistory[slot] > MAX_HISTORY){
+			age();
+		}
+	}
+
+	/**
+	 * Halve the history scores so that newer cutoffs count for more
+	 */
+	public void age(){
+		for (int[] playerHistory : history){
+			for (int slot = 0; slot < playerHistory.length; slot++){
+				playerHistory[slot] >>= 1;
+			}
+		}
+	}
+
+	/**
+	 * Forget the killer moves and the history, as for a new game
+	 */
+	public void clear(){
+		clearKillers();
+		for (int[] playerHistory : history){
+			Arrays.fill(playerHistory, 0);
+		}
+	}
+
+	/**
+	 * Forget the killer moves (they belong to the positions of one search)
+	 */
+	public void clearKillers(){
+		for (int[] plyKillers : killers){
+			plyKillers[0] = -1;
+			plyKillers[1] = -1;
+		}
+	}
+
+	/**
+	 * Gets the bit index where a move would land
+	 */
+	private static int slot(Connect4BitBoard state, int column){
+		return column * state.getSize().getHeight() + state.getHeight(column);
+	}
+}
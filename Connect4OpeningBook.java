@@ -0,0 +1,100 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connect4OpeningBook.java
+ * 
+ * Reads an opening book written by Connect4BookBuilder. The file is
+ * memory-mapped rather than loaded, and looked up by binary search, so
+ * a lookup touches a handful of pages and the book never sits on the heap.
+ * 
+ * File layout (big-endian):
+ *   header:  magic (long), number of records (long)
+ *   records: canonical position key (long), score (int), best move (int),
+ *            sorted by key
+ * A position and its mirror image share a record (see
+ * Connect4BitBoard.getCanonicalKey), and the move is in the orientation of
+ * the canonical key; the caller turns it back with canonicalMove.
+ */
+
+public class Connect4OpeningBook implements Closeable {
+	public static final long MAGIC = 0x43344231_424F4F4BL; // "C4B1BOOK": canonical keys (0 had plain ones)
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 16;
+
+	private FileChannel channel;
+	private MappedByteBuffer records;
+	private int count;
+
+	/**
+	 * Map a book file
+	 * @param path the book file
+	 * @throws IOException if the file can't be read or isn't a book
+	 */
+	public Connect4OpeningBook(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		if (channel.size() > Integer.MAX_VALUE){
+			channel.close();
+			throw new IOException("Book is too large to map: " + path);
+		}
+
+		records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		records.order(ByteOrder.BIG_ENDIAN);
+
+		if (channel.size() < HEADER_SIZE || records.getLong(0) != MAGIC
+				|| channel.size() != HEADER_SIZE + RECORD_SIZE * records.getLong(8)){
+			channel.close();
+			throw new IOException("Not an opening book: " + path);
+		}
+
+		count = (int) records.getLong(8);
+	}
+
+	/**
+	 * Gets the number of positions in the book
+	 * @return the record count
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * Look up a position
+	 * @param key the canonical position key (see Connect4BitBoard.getCanonicalKey)
+	 * @return the book's score and move, or null if the position isn't in the book
+	 */
+	public Connect4Move lookup(long key){
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high){
+			int middle = (low + high) >>> 1;
+			int offset = HEADER_SIZE + middle * RECORD_SIZE;
+			long found = records.getLong(offset);
+
+			if (found < key){
+				low = middle + 1;
+			} else if (found > key){
+				high = middle - 1;
+			} else {
+				return new Connect4Move(records.getInt(offset + 8), records.getInt(offset + 12));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Close the book file (the mapping goes when it is garbage collected)
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
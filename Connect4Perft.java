@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4Perft.java
+ *
+ * Counts the positions reachable in exactly N moves (perft), using only
+ * makeMove, undoMove and gameIsOver. The counts are a check that the move
+ * code is right, and the time they take measures raw make/undo throughput.
+ *
+ * A finished game is counted but not played on. "nodes" are the positions
+ * N moves deep (including games that ended on that move) and "terminals" are
+ * the games that ended within N moves.
+ *
+ * Usage: Connect4Perft depth [moves] [threads] [game|bitboard]
+ */
+
+public class Connect4Perft {
+	// counts from the empty 7x6 board, depths 0 to 10
+	public static final long[] KNOWN_NODES = { 1, 7, 49, 343, 2401, 16807, 117649, 823536,
+			5673234, 39394572, 268031646 };
+	public static final long[] KNOWN_TERMINALS = { 0, 0, 0, 0, 0, 0, 0, 13032, 57462,
+			1144344, 5405402 };
+
+	private long nodes;     // positions at the full depth
+	private long terminals; // games that ended on the way
+
+	/**
+	 * Count the positions below a game, adding to this counter's totals
+	 *
+	 * @param game the position to start from (left unchanged)
+	 * @param depth number of moves to play
+	 */
+	public void count(Connect4Game game, int depth){
+		if (depth == 0){
+			nodes++;
+			return;
+		}
+
+		int eval = game.grabEvalValue();
+
+		for (int col = 0; col < Connect4State.COLS; col++){
+			if (game.isValidMove(col)){
+				game.makeMove(col);
+
+				if (game.gameIsOver()){
+					terminals++;
+					if (depth == 1){
+						nodes++;
+					}
+				} else {
+					count(game, depth - 1);
+				}
+
+				game.undoMove(col, eval);
+			}
+		}
+	}
+
+	/**
+	 * Count the positions below a bitboard, adding to this counter's totals
+	 *
+	 * @param board the position to start from (left unchanged)
+	 * @param depth number of moves to play
+	 */
+	public void count(Connect4BitBoard board, int depth){
+		if (depth == 0){
+			nodes++;
+			return;
+		}
+
+		int eval = board.grabEvalValue();
+
+		for (int col = 0; col < Connect4State.COLS; col++){
+			if (board.isValidMove(col)){
+				board.makeMove(col);
+
+				if (board.gameIsOver()){
+					terminals++;
+					if (depth == 1){
+						nodes++;
+					}
+				} else {
+					count(board, depth - 1);
+				}
+
+				board.undoMove(col, eval);
+			}
+		}
+	}
+
+	/**
+	 * Count the positions below a move sequence, one task per root move
+	 *
+	 * @param moves the moves to the start position, one digit per move
+	 * @param depth number of moves to play
+	 * @param threads number of threads to split the root moves over
+	 * @param bitboard count on Connect4BitBoard instead of Connect4Game
+	 * @return the total counts
+	 */
+	public static Connect4Perft countParallel(String moves, int depth, int threads, boolean bitboard)
+			throws InterruptedException {
+		Connect4Perft total = new Connect4Perft();
+		Connect4Game start = Connect4Game.fromMoves(moves, new Player[2]);
+
+		if (depth == 0 || start.gameIsOver()){
+			total.nodes = 1;
+			return total;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Connect4Perft>> parts = new ArrayList<Future<Connect4Perft>>();
+
+			for (int col = 0; col < Connect4State.COLS; col++){
+				if (!start.isValidMove(col)){
+					continue;
+				}
+
+				// every task gets its own copy of the position
+				final String line = moves + col;
+				parts.add(pool.submit(() -> {
+					Connect4Perft part = new Connect4Perft();
+					Connect4Game game = Connect4Game.fromMoves(line, new Player[2]);
+
+					if (game.gameIsOver()){
+						part.terminals++;
+						if (depth == 1){
+							part.nodes++;
+						}
+					} else if (bitboard){
+						part.count(new Connect4BitBoard(game), depth - 1);
+					} else {
+						part.count(game, depth - 1);
+					}
+					return part;
+				}));
+			}
+
+			for (Future<Connect4Perft> part : parts){
+				Connect4Perft counts = part.get();
+				total.nodes += counts.nodes;
+				total.terminals += counts.terminals;
+			}
+		} catch (ExecutionException e){
+			throw new IllegalStateException("Perft task failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return total;
+	}
+
+	/**
+	 * Gets the number of positions at the full depth
+	 * @return the node count
+	 */
+	public long getNodes(){
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of games that ended within the depth
+	 * @return the terminal count
+	 */
+	public long getTerminals(){
+		return terminals;
+	}
+
+	/**
+	 * Run perft and check the counts from the empty board
+	 * @param args depth, then optionally the moves, the thread count and "game" or "bitboard"
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		String moves = args.length > 1 ? args[1] : "";
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		boolean bitboard = args.length > 3 && args[3].equals("bitboard");
+
+		long start = System.nanoTime();
+		Connect4Perft counts;
+
+		if (threads > 1){
+			counts = countParallel(moves, depth, threads, bitboard);
+		} else {
+			counts = new Connect4Perft();
+			Connect4Game game = Connect4Game.fromMoves(moves, new Player[2]);
+
+			if (bitboard){
+				counts.count(new Connect4BitBoard(game), depth);
+			} else {
+				counts.count(game, depth);
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("perft(" + depth + ") from \"" + moves + "\" on "
+				+ (bitboard ? "bitboard" : "game") + ", " + threads + " thread(s)");
+		System.out.println("nodes " + counts.nodes + ", terminals " + counts.terminals);
+		System.out.println(String.format("%.3fs, %.1fM nodes/s", seconds, counts.nodes / seconds / 1e6));
+
+		if (moves.isEmpty() && depth < KNOWN_NODES.length){
+			if (counts.nodes == KNOWN_NODES[depth] && counts.terminals == KNOWN_TERMINALS[depth]){
+				System.out.println("matches the known counts");
+			} else {
+				System.out.println("MISMATCH: expected nodes " + KNOWN_NODES[depth] + ", terminals "
+						+ KNOWN_TERMINALS[depth]);
+				System.exit(1);
+			}
+		}
+	}
+}
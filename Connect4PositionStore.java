@@ -0,0 +1,407 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connect4PositionStore.java
+ *
+ * A transposition table in a memory-mapped file, so that search results
+ * outlive the process and are shared by every engine on the host that
+ * opens the same file: a position one analysis job has searched deeply is
+ * found by the next one instead of being searched again.
+ *
+ * File layout (big-endian):
+ *   header (64 bytes): magic (long), number of slots (long), columns (int),
+ *           rows (int), scoring (long, see scoring), then zeros
+ *   slots (16 bytes each): key ^ entry (long), entry (long)
+ * The entry is packed as in Connect4TranspositionTable (generation 0), and
+ * keys are canonical (Connect4BitBoard.getCanonicalKey), so only boards
+ * that fit in one long, where the key is the whole position, are stored.
+ *
+ * Slots are found by open addressing: a position can sit in any of PROBES
+ * slots from its hash. A result replaces the same position's if it is at
+ * least as deep, else takes an empty slot or the shallowest one, if that
+ * is no deeper.
+ *
+ * Processes share the file without locking. Each long is read and written
+ * in one access, and as in the table the key slot holds (key ^ entry), so a
+ * slot half written by another process doesn't match its key and reads as
+ * a miss; slots are never emptied, so a probe can stop at the first empty
+ * one. Only creating the file takes a file lock. Within one process, open
+ * the file once and share the store between players.
+ *
+ * Scores depend on the evaluation, so the header records which one the
+ * results are from, and a store is only used with that evaluator.
+ *
+ * Usage: java Connect4PositionStore file
+ *   prints the header and how many results are stored at each depth
+ */
+
+public class Connect4PositionStore implements Closeable {
+	public static final long MAGIC = 0x43345354_4F524531L; // "C4STORE1"
+	public static final int HEADER_SIZE = 64;
+	public static final int RECORD_SIZE = 16;
+	public static final int PROBES = 4; // slots a position may sit in
+	public static final int MAX_SIZE_BITS = 26; // 2^26 slots, a 1GB file (a mapping is at most 2GB)
+
+	public static final long MISS = Connect4TranspositionTable.MISS;
+
+	// whole-long reads and writes of the mapped file, which other processes can't see half done
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private final FileChannel channel;
+	private final MappedByteBuffer records;
+	private final int indexMask;
+	private final Connect4BoardSize size;
+	private final long scoring;
+
+	// statistics for this process only, not synchronized
+	private long probes;
+	private long hits;
+	private long stores;
+
+	/**
+	 * Open a store, creating the file if there is none
+	 *
+	 * @param path the store file
+	 * @param sizeBits a new file holds 2^sizeBits results (an existing one keeps its size)
+	 * @param size the board size the results are for
+	 * @param evaluator the evaluator the results are searched with
+	 * @throws IOException if the file can't be opened, isn't a store or is for another board or evaluator
+	 */
+	public Connect4PositionStore(Path path, int sizeBits, Connect4BoardSize size, Connect4Evaluator evaluator) throws IOException {
+		this(path, sizeBits, size, scoring(evaluator), true);
+	}
+
+	/**
+	 * Open an existing store, whatever it is for
+	 *
+	 * @param path the store file
+	 * @throws IOException if the file can't be opened or isn't a store
+	 */
+	public Connect4PositionStore(Path path) throws IOException {
+		this(path, 0, null, 0, false);
+	}
+
+	/**
+	 * Open a store
+	 *
+	 * @param create true to create a missing file and check the board size and scoring
+	 */
+	private Connect4PositionStore(Path path, int sizeBits, Connect4BoardSize size, long scoring, boolean create) throws IOException {
+		if (create && (sizeBits < 1 || sizeBits > MAX_SIZE_BITS)){
+			throw new IllegalArgumentException("Store size must be 2^1 to 2^" + MAX_SIZE_BITS + " results");
+		}
+		if (create && !size.fitsOneLong()){
+			throw new IllegalArgumentException("Only boards of at most 64 bits can be stored, not " + size);
+		}
+
+		channel = create ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+				: FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			// the lock keeps a process from reading the header while another writes it
+			FileLock lock = channel.lock();
+			try {
+				if (create && channel.size() == 0){
+					initialize(sizeBits, size, scoring);
+				}
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				channel.read(header, 0);
+				header.flip();
+
+				long slots = (header.remaining() == HEADER_SIZE) ? header.getLong(8) : 0;
+				if (header.remaining() < HEADER_SIZE || header.getLong(0) != MAGIC
+						|| slots < 2 || slots > (1L << MAX_SIZE_BITS) || Long.bitCount(slots) != 1
+						|| channel.size() != HEADER_SIZE + RECORD_SIZE * slots){
+					throw new IOException("Not a position store: " + path);
+				}
+
+				this.size = Connect4BoardSize.of(header.getInt(16), header.getInt(20));
+				this.scoring = header.getLong(24);
+				if (create && this.size != size){
+					throw new IOException("Position store is for " + this.size + " boards, not " + size + ": " + path);
+				}
+				if (create && this.scoring != scoring){
+					throw new IOException("Position store was searched with another evaluator: " + path);
+				}
+
+				indexMask = (int) slots - 1;
+				records = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			} finally {
+				lock.release();
+			}
+		} catch (IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the header of a new file and make room for the slots, the magic
+	 * number last, so that a file left half made isn't taken for a store
+	 */
+	private void initialize(int sizeBits, Connect4BoardSize size, long scoring) throws IOException {
+		long slots = 1L << sizeBits;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(0, 0);
+		header.putLong(8, slots);
+		header.putInt(16, size.getColumns());
+		header.putInt(20, size.getRows());
+		header.putLong(24, scoring);
+		write(header, 0);
+
+		// the last byte, so the file reads as zeros (empty slots) up to it
+		write(ByteBuffer.allocate(1), HEADER_SIZE + RECORD_SIZE * slots - 1);
+		channel.force(false);
+
+		ByteBuffer magic = ByteBuffer.allocate(8);
+		magic.putLong(0, MAGIC);
+		write(magic, 0);
+		channel.force(false);
+	}
+
+	/**
+	 * Write all of a buffer at a position in the file
+	 */
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * A fingerprint of what an evaluator's scores mean: its class, weights
+	 * and win value (FNV-1a of their description)
+	 *
+	 * @param evaluator the evaluator
+	 * @return the fingerprint kept in the header
+	 */
+	public static long scoring(Connect4Evaluator evaluator){
+		String description = evaluator.getClass().getName() + " " + evaluator.getWeights() + " " + evaluator.winValue();
+
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < description.length(); i++){
+			hash = (hash ^ description.charAt(i)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Look up a position
+	 *
+	 * @param key the canonical position key
+	 * @return the packed entry (see Connect4TranspositionTable), or MISS
+	 */
+	public long probe(long key){
+		int index = index(key);
+		probes++;
+
+		for (int i = 0; i < PROBES; i++){
+			int slot = (index + i) & indexMask;
+			long entry = entry(slot);
+
+			if (entry == MISS){
+				return MISS;
+			}
+			if ((keySlot(slot) ^ entry) == key){
+				hits++;
+				return entry;
+			}
+		}
+
+		return MISS;
+	}
+
+	/**
+	 * Record the result of a search
+	 *
+	 * @param key the canonical position key
+	 * @param depth the depth that was searched
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param move the best move found, in the orientation of the canonical key
+	 * @param score the value found
+	 */
+	public void store(long key, int depth, int bound, int move, int score){
+		int index = index(key);
+		int victim = -1;
+		int victimDepth = Integer.MAX_VALUE;
+
+		for (int i = 0; i < PROBES; i++){
+			int slot = (index + i) & indexMask;
+			long old = entry(slot);
+
+			if (old == MISS || (keySlot(slot) ^ old) == key){
+				// an empty slot, or this position's own: keep a deeper result that is already there
+				if (old != MISS && Connect4TranspositionTable.depth(old) > depth){
+					return;
+				}
+				victim = slot;
+				victimDepth = -1;
+				break;
+			}
+
+			if (Connect4TranspositionTable.depth(old) < victimDepth){
+				victim = slot;
+				victimDepth = Connect4TranspositionTable.depth(old);
+			}
+		}
+
+		if (victimDepth > depth){
+			return;
+		}
+
+		long entry = Connect4TranspositionTable.pack(depth, bound, move, score, 0);
+		LONGS.setOpaque(records, offset(victim), key ^ entry);
+		LONGS.setOpaque(records, offset(victim) + 8, entry);
+		stores++;
+	}
+
+	/**
+	 * Write the results stored so far out to the file (they reach other
+	 * processes without this; it is for surviving a crash of the host)
+	 */
+	public void flush(){
+		records.force();
+	}
+
+	/**
+	 * Flush and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		records.force();
+		channel.close();
+	}
+
+	/**
+	 * @return the packed entry in a slot
+	 */
+	private long entry(int slot){
+		return (long) LONGS.getOpaque(records, offset(slot) + 8);
+	}
+
+	/**
+	 * @return the key slot (key ^ entry) of a slot
+	 */
+	private long keySlot(int slot){
+		return (long) LONGS.getOpaque(records, offset(slot));
+	}
+
+	/**
+	 * @return where a slot starts in the file
+	 */
+	private static int offset(int slot){
+		return HEADER_SIZE + slot * RECORD_SIZE;
+	}
+
+	/**
+	 * Spread the key bits over the index (Fibonacci hashing)
+	 */
+	private int index(long key){
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & indexMask;
+	}
+
+	/**
+	 * Gets the board size the results are for
+	 * @return the size
+	 */
+	public Connect4BoardSize getSize(){
+		return size;
+	}
+
+	/**
+	 * Gets the fingerprint of the evaluator the results are from
+	 * @return the scoring, see scoring(Connect4Evaluator)
+	 */
+	public long getScoring(){
+		return scoring;
+	}
+
+	/**
+	 * Is the store for this board size and evaluator?
+	 * @param size the board size
+	 * @param evaluator the evaluator
+	 * @return true if its results can be used
+	 */
+	public boolean isFor(Connect4BoardSize size, Connect4Evaluator evaluator){
+		return this.size == size && scoring == scoring(evaluator);
+	}
+
+	/**
+	 * @return number of results the store can hold
+	 */
+	public int size(){
+		return indexMask + 1;
+	}
+
+	/**
+	 * Counts the results stored at each depth (looks at every slot)
+	 * @return the count by depth, index 256 holding the total
+	 */
+	public long[] countEntries(){
+		long[] counts = new long[257];
+
+		for (int slot = 0; slot <= indexMask; slot++){
+			long entry = entry(slot);
+			if (entry != MISS){
+				counts[Connect4TranspositionTable.depth(entry)]++;
+				counts[256]++;
+			}
+		}
+		return counts;
+	}
+
+	public long getProbes(){
+		return probes;
+	}
+
+	public long getHits(){
+		return hits;
+	}
+
+	public long getStores(){
+		return stores;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("store size=%d probes=%d hits=%d (%.1f%%) stores=%d", size(), probes, hits,
+				probes == 0 ? 0.0 : 100.0 * hits / probes, stores);
+	}
+
+	/**
+	 * Print what a store file holds
+	 * @param args the store file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1){
+			System.err.println("Usage: Connect4PositionStore file");
+			System.exit(2);
+		}
+
+		try (Connect4PositionStore store = new Connect4PositionStore(Paths.get(args[0]))){
+			long[] counts = store.countEntries();
+
+			System.out.println(String.format("%s: %d slots for %s boards, scoring %016x, %d results (%.1f%% full)",
+					args[0], store.size(), store.getSize(), store.getScoring(), counts[256],
+					100.0 * counts[256] / store.size()));
+			for (int depth = 0; depth < 256; depth++){
+				if (counts[depth] > 0){
+					System.out.println("  depth " + depth + ": " + counts[depth]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Connect4PositionStoreCheck.java
+ *
+ * Checks that processes can share a Connect4PositionStore without
+ * corrupting it. Starts worker processes that all write and probe the same
+ * small store at once, over overlapping keys, where every key's depth,
+ * bound, move and score follow from the key; any result a worker finds
+ * that doesn't is a torn or corrupt slot. Then reopens the file, as after
+ * a restart, and checks every slot, and that the file is refused for
+ * another evaluator. Finally searches positions twice with a store, as
+ * two runs of an analysis would, and checks that the second run finds the
+ * first one's results. (The first run can differ from searching without
+ * the store, where one position's subtree picks up deeper results stored
+ * while searching another.)
+ *
+ * Usage: java Connect4PositionStoreCheck [processes] [operations] [depth]
+ */
+
+public class Connect4PositionStoreCheck {
+	private static final int SIZE_BITS = 12; // small, so the workers fight over slots
+	private static final int KEYS = 1 << 14; // keys the workers share
+	private static final int POSITIONS = 20;
+	private static final int OPENING_MOVES = 6;
+	private static final long SEED = 1;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("worker")){
+			worker(Paths.get(args[1]), Long.parseLong(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+
+		int processes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 9;
+
+		Path file = Files.createTempFile("connect4", ".store");
+		Files.delete(file); // the store creates it
+		try {
+			checkProcesses(file, processes, operations);
+			checkSearch(file, depth);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Run the workers against one file, then check it as a restarted process would
+	 */
+	private static void checkProcesses(Path file, int processes, int operations) throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> workers = new ArrayList<Process>();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < processes; i++){
+			workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					Connect4PositionStoreCheck.class.getName(), "worker", file.toString(), Long.toString(SEED + i),
+					Integer.toString(operations)).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start());
+		}
+
+		for (Process worker : workers){
+			if (worker.waitFor() != 0){
+				fail("a worker failed");
+			}
+		}
+		System.out.println(String.format("%d processes, %d operations each: %.1fs", processes, operations,
+				(System.nanoTime() - start) / 1e9));
+
+		// reopen, as after a restart: every slot still holds what its key says
+		try (Connect4PositionStore store = new Connect4PositionStore(file, SIZE_BITS, Connect4BoardSize.STANDARD,
+				new Connect4WindowEvaluator())){
+			int found = 0;
+			for (long key = 1; key <= KEYS; key++){
+				long entry = store.probe(key);
+				if (entry != Connect4PositionStore.MISS){
+					found++;
+					if (entry != expected(key)){
+						fail("key " + key + " reads back " + Long.toHexString(entry) + " after reopening");
+					}
+				}
+			}
+			System.out.println("reopened: " + found + " of " + KEYS + " keys found in " + store.size()
+					+ " slots, " + store.countEntries()[256] + " slots used, none corrupt");
+		}
+
+		try {
+			new Connect4PositionStore(file, SIZE_BITS, Connect4BoardSize.STANDARD, new Connect4ThreatEvaluator());
+			fail("a store for another evaluator was opened");
+		} catch (IOException e){
+			System.out.println("another evaluator: refused (" + e.getMessage() + ")");
+		}
+		Files.delete(file);
+	}
+
+	/**
+	 * Write and probe random keys, checking every hit
+	 */
+	private static void worker(Path file, long seed, int operations) throws IOException {
+		Random random = new Random(seed);
+		long hits = 0;
+
+		try (Connect4PositionStore store = new Connect4PositionStore(file, SIZE_BITS, Connect4BoardSize.STANDARD,
+				new Connect4WindowEvaluator())){
+			for (int i = 0; i < operations; i++){
+				long key = 1 + random.nextInt(KEYS);
+
+				if (random.nextBoolean()){
+					long entry = expected(key);
+					store.store(key, Connect4TranspositionTable.depth(entry), Connect4TranspositionTable.bound(entry),
+							Connect4TranspositionTable.move(entry), Connect4TranspositionTable.score(entry));
+				} else {
+					long entry = store.probe(key);
+					if (entry != Connect4PositionStore.MISS){
+						hits++;
+						if (entry != expected(key)){
+							System.out.println("FAILED: key " + key + " reads " + Long.toHexString(entry)
+									+ ", not " + Long.toHexString(expected(key)));
+							System.exit(1);
+						}
+					}
+				}
+			}
+		}
+
+		System.out.println("worker " + seed + ": " + hits + " hits, all as written");
+	}
+
+	/**
+	 * The one result every process writes for a key
+	 */
+	private static long expected(long key){
+		long mixed = key * 0x9E3779B97F4A7C15L;
+		mixed ^= mixed >>> 29;
+
+		int depth = 1 + (int) ((mixed >>> 8) & 31);
+		int bound = 1 + (int) (((mixed >>> 16) & 0xFF) % 3);
+		int move = (int) (((mixed >>> 24) & 0xFF) % 7);
+		return Connect4TranspositionTable.pack(depth, bound, move, (int) (mixed >> 32), 0);
+	}
+
+	/**
+	 * Search positions with a store and an empty table, then again as a new run would
+	 */
+	private static void checkSearch(Path file, int depth) throws IOException {
+		List<Connect4BitBoard> positions = new ArrayList<Connect4BitBoard>();
+		Random random = new Random(SEED);
+
+		while (positions.size() < POSITIONS){
+			Connect4BitBoard state = new Connect4BitBoard(Connect4BoardSize.STANDARD, 0, new Player[2]);
+			while (!state.gameIsOver() && state.getMovesPlayed() < OPENING_MOVES){
+				int column = random.nextInt(Connect4State.COLS);
+				if (state.isValidMove(column)){
+					state.makeMove(column);
+				}
+			}
+			if (!state.gameIsOver()){
+				positions.add(state);
+			}
+		}
+
+		long[] plain = searchAll(positions, depth, null);
+
+		long[][] runs = new long[2][];
+		for (int run = 0; run < 2; run++){
+			try (Connect4PositionStore store = new Connect4PositionStore(file, 20, Connect4BoardSize.STANDARD,
+					new Connect4WindowEvaluator())){
+				long start = System.nanoTime();
+				runs[run] = searchAll(positions, depth, store);
+				System.out.println(String.format("run %d with the store: %d nodes, %.0fms, %s", run + 1,
+						runs[run][POSITIONS], (System.nanoTime() - start) / 1e6, store));
+			}
+		}
+		System.out.println("without the store: " + plain[POSITIONS] + " nodes");
+
+		int differ = 0;
+		for (int i = 0; i < POSITIONS; i++){
+			if (runs[1][i] != runs[0][i]){
+				fail("position " + i + ": " + ComputerConnect4Player.moveOf(runs[0][i]) + "/"
+						+ ComputerConnect4Player.valueOf(runs[0][i]) + " in the first run, "
+						+ ComputerConnect4Player.moveOf(runs[1][i]) + "/" + ComputerConnect4Player.valueOf(runs[1][i])
+						+ " in the second");
+			}
+			if (runs[0][i] != plain[i]){
+				differ++;
+			}
+		}
+		System.out.println(POSITIONS + " positions at depth " + depth + ": both runs agree; "
+				+ differ + " differ from searching without the store");
+	}
+
+	/**
+	 * Search every position with a fresh player and table
+	 *
+	 * @return the results, then the total nodes
+	 */
+	private static long[] searchAll(List<Connect4BitBoard> positions, int depth, Connect4PositionStore store){
+		long[] results = new long[positions.size() + 1];
+
+		for (int i = 0; i < positions.size(); i++){
+			ComputerConnect4Player player = new ComputerConnect4Player("check", depth,
+					new Connect4TranspositionTable(16, Connect4TranspositionTable.Replacement.DEPTH_PREFERRED));
+			player.setPositionStore(store, 3);
+
+			results[i] = player.search(positions.get(i), depth);
+			results[positions.size()] += player.getNodeCount();
+		}
+		return results;
+	}
+
+	private static void fail(String message){
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Connect4SearchListener.java
+ * 
+ * Receives the steps of a computer player's game tree search, for tracing
+ * and debugging. A player with no listener skips all of these calls.
+ * 
+ * The state passed in belongs to the search: read it during the call but
+ * don't change or keep it.
+ */
+
+public interface Connect4SearchListener {
+
+	/**
+	 * A position is about to be searched
+	 * @param state the position
+	 * @param depth the remaining depth
+	 * @param low a value that the player can achieve by some other move
+	 * @param high a value that the opponent can force by a different line of play
+	 */
+	public void nodeEntered(Connect4BitBoard state, int depth, int low, int high);
+
+	/**
+	 * A move is about to be tried
+	 * @param state the position before the move
+	 * @param column the column being played
+	 */
+	public void moveTried(Connect4BitBoard state, int column);
+
+	/**
+	 * A move was good enough that the rest are skipped
+	 * @param state the position the move was played from
+	 * @param column the column played
+	 * @param value the value that caused the cutoff
+	 */
+	public void cutoff(Connect4BitBoard state, int column, int value);
+
+	/**
+	 * The search of a position is done
+	 * @param state the position
+	 * @param depth the remaining depth
+	 * @param value the value found
+	 * @param move the best move found
+	 * @param bound Connect4TranspositionTable.EXACT, LOWER or UPPER
+	 * @param fromTable true if the result came from the transposition table
+	 */
+	public void result(Connect4BitBoard state, int depth, int value, int move, int bound, boolean fromTable);
+}
@@ -0,0 +1,224 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Connect4SearchMetrics.java
+ *
+ * Running totals of a computer player's Connect4SearchStats over every move
+ * it has played. Updated once per move, so the cost is nothing next to the
+ * search. Can be registered as a JMX MBean, and exported as text in the
+ * Prometheus exposition format for scraping.
+ */
+
+public class Connect4SearchMetrics implements Connect4SearchMetricsMBean {
+	private final String playerName;
+
+	private long moves;
+	private long searchedMoves;
+	private long solvedMoves;
+	private long bookMoves;
+	private long endgameMoves;
+
+	private long nodes;
+	private long leafEvaluations;
+	private long cutoffs;
+	private long firstMoveCutoffs;
+	private long tableProbes;
+	private long tableHits;
+	private long elapsedNanos;
+
+	private int lastDepthReached;
+
+	/**
+	 * Create empty totals
+	 * @param playerName the player the totals belong to
+	 */
+	public Connect4SearchMetrics(String playerName){
+		this.playerName = playerName;
+	}
+
+	/**
+	 * Add one move's statistics to the totals
+	 * @param stats the statistics of the move
+	 */
+	public synchronized void record(Connect4SearchStats stats){
+		moves++;
+		if (stats.getSource().equals(Connect4SearchStats.BOOK)){
+			bookMoves++;
+		} else if (stats.getSource().equals(Connect4SearchStats.SOLVER)){
+			solvedMoves++;
+		} else if (stats.getSource().equals(Connect4SearchStats.ENDGAME)){
+			endgameMoves++;
+		} else {
+			searchedMoves++;
+			lastDepthReached = stats.getDepthReached();
+		}
+
+		nodes += stats.getNodes();
+		leafEvaluations += stats.getLeafEvaluations();
+		cutoffs += stats.getCutoffs();
+		firstMoveCutoffs += stats.getFirstMoveCutoffs();
+		tableProbes += stats.getTableProbes();
+		tableHits += stats.getTableHits();
+		elapsedNanos += stats.getElapsedNanos();
+	}
+
+	/**
+	 * Register with the platform MBean server as
+	 * connect4:type=SearchMetrics,name=(player name)
+	 *
+	 * @return the name registered under
+	 */
+	public ObjectName register(){
+		try {
+			ObjectName name = new ObjectName("connect4:type=SearchMetrics,name=" + ObjectName.quote(playerName));
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+
+			return name;
+		} catch (JMException e){
+			throw new IllegalStateException("Can't register search metrics for " + playerName, e);
+		}
+	}
+
+	@Override
+	public synchronized void reset(){
+		moves = searchedMoves = solvedMoves = bookMoves = endgameMoves = 0;
+		nodes = leafEvaluations = cutoffs = firstMoveCutoffs = 0;
+		tableProbes = tableHits = elapsedNanos = 0;
+		lastDepthReached = 0;
+	}
+
+	@Override
+	public synchronized long getMoves(){
+		return moves;
+	}
+
+	@Override
+	public synchronized long getSearchedMoves(){
+		return searchedMoves;
+	}
+
+	@Override
+	public synchronized long getSolvedMoves(){
+		return solvedMoves;
+	}
+
+	@Override
+	public synchronized long getBookMoves(){
+		return bookMoves;
+	}
+
+	@Override
+	public synchronized long getEndgameMoves(){
+		return endgameMoves;
+	}
+
+	@Override
+	public synchronized long getNodes(){
+		return nodes;
+	}
+
+	@Override
+	public synchronized long getLeafEvaluations(){
+		return leafEvaluations;
+	}
+
+	@Override
+	public synchronized long getCutoffs(){
+		return cutoffs;
+	}
+
+	@Override
+	public synchronized long getFirstMoveCutoffs(){
+		return firstMoveCutoffs;
+	}
+
+	@Override
+	public synchronized long getTableProbes(){
+		return tableProbes;
+	}
+
+	@Override
+	public synchronized long getTableHits(){
+		return tableHits;
+	}
+
+	@Override
+	public synchronized long getTotalTimeMillis(){
+		return elapsedNanos / 1000000L;
+	}
+
+	@Override
+	public synchronized int getLastDepthReached(){
+		return lastDepthReached;
+	}
+
+	@Override
+	public synchronized double getFirstMoveCutoffRate(){
+		return cutoffs == 0 ? 0.0 : (double) firstMoveCutoffs / cutoffs;
+	}
+
+	@Override
+	public synchronized double getTableHitRate(){
+		return tableProbes == 0 ? 0.0 : (double) tableHits / tableProbes;
+	}
+
+	@Override
+	public synchronized double getNodesPerSecond(){
+		return elapsedNanos == 0 ? 0.0 : nodes * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Export the totals in the Prometheus text format, one line per metric
+	 * @return the metrics text
+	 */
+	public synchronized String exportText(){
+		// label values escape backslash, double quote and newline
+		String player = "player=\"" + playerName.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+		String label = "{" + player + "}";
+		StringBuilder text = new StringBuilder();
+
+		counter(text, "connect4_moves_total", label, moves);
+		counter(text, "connect4_moves_by_source_total", sourceLabel(player, "search"), searchedMoves);
+		counter(text, "connect4_moves_by_source_total", sourceLabel(player, "solver"), solvedMoves);
+		counter(text, "connect4_moves_by_source_total", sourceLabel(player, "book"), bookMoves);
+		counter(text, "connect4_moves_by_source_total", sourceLabel(player, "endgame"), endgameMoves);
+		counter(text, "connect4_search_nodes_total", label, nodes);
+		counter(text, "connect4_search_leaf_evaluations_total", label, leafEvaluations);
+		counter(text, "connect4_search_cutoffs_total", label, cutoffs);
+		counter(text, "connect4_search_first_move_cutoffs_total", label, firstMoveCutoffs);
+		counter(text, "connect4_table_probes_total", label, tableProbes);
+		counter(text, "connect4_table_hits_total", label, tableHits);
+		text.append("connect4_search_seconds_total").append(label).append(' ')
+				.append(elapsedNanos / 1e9).append('\n');
+		text.append("connect4_search_depth_reached").append(label).append(' ')
+				.append(lastDepthReached).append('\n');
+
+		return text.toString();
+	}
+
+	/**
+	 * The labels of a moves-by-source line
+	 * @param player the escaped player label
+	 * @param source where the moves came from
+	 * @return the labels, in braces
+	 */
+	private static String sourceLabel(String player, String source){
+		return "{" + player + ",source=\"" + source + "\"}";
+	}
+
+	/**
+	 * Append one counter line
+	 */
+	private static void counter(StringBuilder text, String metric, String labels, long value){
+		text.append(metric).append(labels).append(' ').append(value).append('\n');
+	}
+}
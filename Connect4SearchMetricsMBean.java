@@ -0,0 +1,32 @@
+/**
+ * Connect4SearchMetricsMBean.java
+ *
+ * The JMX view of a computer player's cumulative search statistics.
+ * See Connect4SearchMetrics.
+ */
+
+public interface Connect4SearchMetricsMBean {
+	long getMoves();
+	long getSearchedMoves();
+	long getSolvedMoves();
+	long getBookMoves();
+	long getEndgameMoves();
+
+	long getNodes();
+	long getLeafEvaluations();
+	long getCutoffs();
+	long getFirstMoveCutoffs();
+	long getTableProbes();
+	long getTableHits();
+	long getTotalTimeMillis();
+
+	int getLastDepthReached();
+	double getFirstMoveCutoffRate();
+	double getTableHitRate();
+	double getNodesPerSecond();
+
+	/**
+	 * Start counting again from zero
+	 */
+	void reset();
+}
@@ -0,0 +1,133 @@
+/**
+ * Connect4SearchStats.java
+ *
+ * What one getMove of a computer player cost: counters for the search,
+ * kept as plain longs by the player while it searches and copied into
+ * one of these when the move is chosen.
+ */
+
+public class Connect4SearchStats {
+	// where the move came from
+	public static final String SEARCH = "search";
+	public static final String SOLVER = "solver";
+	public static final String ENDGAME = "endgame"; // looked up in an endgame database
+	public static final String BOOK = "book";
+
+	private final String source;
+	private final long nodes;            // positions searched, by all threads
+	private final long leafEvaluations;  // calls to the evaluator
+	private final long cutoffs;          // nodes where a move reached beta
+	private final long firstMoveCutoffs; // cutoffs made by the first move tried
+	private final long tableProbes;
+	private final long tableHits;
+	private final int depthReached;
+	private final long elapsedNanos;
+
+	/**
+	 * Create the statistics of one move
+	 *
+	 * @param source SEARCH, SOLVER, ENDGAME or BOOK
+	 * @param nodes positions searched
+	 * @param leafEvaluations calls to the evaluator
+	 * @param cutoffs nodes where a move reached beta
+	 * @param firstMoveCutoffs cutoffs made by the first move tried
+	 * @param tableProbes transposition table lookups
+	 * @param tableHits lookups that found the position
+	 * @param depthReached depth of the last completed search
+	 * @param elapsedNanos time taken to choose the move
+	 */
+	public Connect4SearchStats(String source, long nodes, long leafEvaluations, long cutoffs,
+			long firstMoveCutoffs, long tableProbes, long tableHits, int depthReached, long elapsedNanos){
+		this.source = source;
+		this.nodes = nodes;
+		this.leafEvaluations = leafEvaluations;
+		this.cutoffs = cutoffs;
+		this.firstMoveCutoffs = firstMoveCutoffs;
+		this.tableProbes = tableProbes;
+		this.tableHits = tableHits;
+		this.depthReached = depthReached;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public String getSource(){
+		return source;
+	}
+
+	public long getNodes(){
+		return nodes;
+	}
+
+	public long getLeafEvaluations(){
+		return leafEvaluations;
+	}
+
+	public long getCutoffs(){
+		return cutoffs;
+	}
+
+	public long getFirstMoveCutoffs(){
+		return firstMoveCutoffs;
+	}
+
+	public long getTableProbes(){
+		return tableProbes;
+	}
+
+	public long getTableHits(){
+		return tableHits;
+	}
+
+	public int getDepthReached(){
+		return depthReached;
+	}
+
+	public long getElapsedNanos(){
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return fraction of cutoffs made by the first move tried (the better
+	 * the move ordering, the closer to 1)
+	 */
+	public double getFirstMoveCutoffRate(){
+		return cutoffs == 0 ? 0.0 : (double) firstMoveCutoffs / cutoffs;
+	}
+
+	/**
+	 * The branching factor of a uniform tree as big as the one searched:
+	 * a search at depth d looks d + 1 moves ahead, so this is the
+	 * (d + 1)-th root of the positions visited (nodes and leaves)
+	 *
+	 * @return the effective branching factor, 0 when nothing was searched
+	 */
+	public double getEffectiveBranchingFactor(){
+		long visited = nodes + leafEvaluations;
+		if (visited == 0 || depthReached < 0){
+			return 0.0;
+		}
+		return Math.pow(visited, 1.0 / (depthReached + 1));
+	}
+
+	/**
+	 * @return fraction of table probes that found the position
+	 */
+	public double getTableHitRate(){
+		return tableProbes == 0 ? 0.0 : (double) tableHits / tableProbes;
+	}
+
+	/**
+	 * @return nodes searched per second
+	 */
+	public double getNodesPerSecond(){
+		return elapsedNanos == 0 ? 0.0 : nodes * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("%s depth=%d nodes=%d leaves=%d cutoffs=%d first-move=%.1f%% ebf=%.2f "
+				+ "table-hits=%.1f%% time=%.1fms nps=%.0f",
+				source, depthReached, nodes, leafEvaluations, cutoffs, 100.0 * getFirstMoveCutoffRate(),
+				getEffectiveBranchingFactor(), 100.0 * getTableHitRate(), elapsedNanos / 1e6,
+				getNodesPerSecond());
+	}
+}
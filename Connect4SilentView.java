@@ -0,0 +1,42 @@
+/**
+ * Connect4SilentView.java
+ * 
+ * A view that shows nothing, for computer players searching or playing
+ * without anyone watching (benchmarks, batch runs).
+ */
+
+public class Connect4SilentView implements Connect4View{
+
+	public void display(Connect4State state){
+	}
+
+	/**
+	 * There is no user to ask
+	 * @throws UnsupportedOperationException always
+	 */
+	public int getUserMove(Connect4State state){
+		throw new UnsupportedOperationException("No user behind a silent view");
+	}
+
+	public void reportMove(int chosenMove, String name){
+	}
+
+	/**
+	 * There is no user to ask
+	 * @throws UnsupportedOperationException always
+	 */
+	public int getIntAnswer(String question){
+		throw new UnsupportedOperationException("No user behind a silent view");
+	}
+
+	public void reportToUser(String message){
+	}
+
+	/**
+	 * There is no user to ask
+	 * @throws UnsupportedOperationException always
+	 */
+	public String getAnswer(String question){
+		throw new UnsupportedOperationException("No user behind a silent view");
+	}
+}
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Connect4SizeBenchmark.java
+ *
+ * Measures how the engine scales with the board size. For each size it
+ * prints:
+ *   - make/undo: moves made and undone per second on the bitboard, over
+ *     every line of play a few moves deep from the empty board
+ *   - search: nodes per second of fixed-depth searches from random openings
+ *   - solve: mean time to play random endgames out to the end, by searching
+ *     to the end of the game and, on boards that fit in one long, with the
+ *     solver
+ * Every size gets the same number of random positions, from the same seed.
+ *
+ * Usage: java Connect4SizeBenchmark [depth] [emptySlots] [positions] [sizes...]
+ *   e.g. java Connect4SizeBenchmark 10 20 20 7x6 8x7 9x7
+ */
+
+public class Connect4SizeBenchmark {
+	private static final int MAKE_UNDO_DEPTH = 6;
+	private static final int WARM_UP_RUNS = 5;
+	private static final int OPENING_MOVES = 4;
+	private static final long SEED = 1;
+	private static final int TABLE_BITS = 20; // emptied before every position, outside the timing
+
+	public static void main(String[] args){
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int emptySlots = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		String[] sizes = {"7x6", "8x7", "9x7", "10x8"};
+
+		if (args.length > 3){
+			sizes = new String[args.length - 3];
+			System.arraycopy(args, 3, sizes, 0, sizes.length);
+		}
+
+		System.out.println("search depth " + depth + ", endgames with " + emptySlots + " empty slots, "
+				+ count + " positions each");
+		System.out.println("size   bits longs  make/undo/s  search nodes/s  search ms  to-end ms  solver ms");
+
+		for (String name : sizes){
+			Connect4BoardSize size = Connect4BoardSize.parse(name);
+			Random random = new Random(SEED);
+
+			List<Connect4BitBoard> openings = randomPositions(size, random, count, OPENING_MOVES);
+			List<Connect4BitBoard> endgames = randomPositions(size, random, count, size.getSlots() - emptySlots);
+
+			// make/undo: warm up, then time
+			for (int i = 0; i < WARM_UP_RUNS; i++){
+				makeUndo(new Connect4BitBoard(size, 0, new Player[2]), MAKE_UNDO_DEPTH);
+			}
+			long start = System.nanoTime();
+			long moves = makeUndo(new Connect4BitBoard(size, 0, new Player[2]), MAKE_UNDO_DEPTH);
+			double makeUndoSeconds = (System.nanoTime() - start) / 1e9;
+
+			// fixed-depth searches, each with an empty table
+			search(openings.subList(0, Math.min(2, count)), depth); // warm up
+			long[] search = search(openings, depth);
+			double searchMillis = search[1] / 1e6;
+
+			// endgames searched to the end of the game
+			search(endgames.subList(0, Math.min(2, count)), emptySlots); // warm up
+			double toEndMillis = search(endgames, emptySlots)[1] / 1e6 / count;
+
+			String solverMillis = "-";
+			if (size.fitsOneLong()){
+				Connect4Solver solver = new Connect4Solver(size, new Connect4TranspositionTable(TABLE_BITS,
+						Connect4TranspositionTable.Replacement.ALWAYS));
+				solver.solve(endgames.get(0)); // warm up
+
+				long nanos = 0;
+				for (Connect4BitBoard endgame : endgames){
+					solver.getTable().clear();
+
+					start = System.nanoTime();
+					solver.solve(endgame);
+					nanos += System.nanoTime() - start;
+				}
+				solverMillis = String.format("%.2f", nanos / 1e6 / count);
+			}
+
+			System.out.printf("%-6s %4d %5d %12.0f %15.0f %10.0f %10.2f %10s%n", size,
+					size.getColumns() * size.getHeight(), size.fitsOneLong() ? 1 : 2,
+					moves / makeUndoSeconds, search[0] / (searchMillis / 1000), searchMillis, toEndMillis, solverMillis);
+		}
+	}
+
+	/**
+	 * Random positions where the game isn't over
+	 *
+	 * @param size the board size
+	 * @param random source of the moves
+	 * @param count number of positions
+	 * @param movesPlayed moves to play into each position
+	 * @return the positions
+	 */
+	private static List<Connect4BitBoard> randomPositions(Connect4BoardSize size, Random random, int count, int movesPlayed){
+		List<Connect4BitBoard> positions = new ArrayList<Connect4BitBoard>();
+
+		while (positions.size() < count){
+			Connect4BitBoard state = new Connect4BitBoard(size, 0, new Player[2]);
+
+			while (!state.gameIsOver() && state.getMovesPlayed() < movesPlayed){
+				int column = random.nextInt(size.getColumns());
+				if (state.isValidMove(column)){
+					state.makeMove(column);
+				}
+			}
+
+			if (!state.gameIsOver()){
+				positions.add(state);
+			}
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Search every position to a depth with a fresh player and empty table
+	 *
+	 * @param positions the positions
+	 * @param depth the depth
+	 * @return nodes searched in all, and nanoseconds spent searching
+	 */
+	private static long[] search(List<Connect4BitBoard> positions, int depth){
+		Connect4TranspositionTable table = new Connect4TranspositionTable(TABLE_BITS,
+				Connect4TranspositionTable.Replacement.DEPTH_PREFERRED);
+		long nodes = 0;
+		long nanos = 0;
+
+		for (Connect4BitBoard position : positions){
+			table.clear();
+			ComputerConnect4Player player = new ComputerConnect4Player("Computer", depth, table);
+
+			long start = System.nanoTime();
+			player.search(position, depth);
+			nanos += System.nanoTime() - start;
+			nodes += player.getNodeCount();
+		}
+
+		return new long[] {nodes, nanos};
+	}
+
+	/**
+	 * Make and undo every line of play to a depth
+	 *
+	 * @param state the position, left as it was
+	 * @param depth moves to look ahead
+	 * @return moves made
+	 */
+	private static long makeUndo(Connect4BitBoard state, int depth){
+		if (depth == 0 || state.gameIsOver()){
+			return 0;
+		}
+
+		long moves = 0;
+		int eval = state.grabEvalValue();
+
+		for (int column = 0; column < state.getSize().getColumns(); column++){
+			if (state.isValidMove(column)){
+				state.makeMove(column);
+				moves += 1 + makeUndo(state, depth - 1);
+				state.undoMove(column, eval);
+			}
+		}
+
+		return moves;
+	}
+}
@@ -0,0 +1,385 @@
+/**
+ * Connect4Solver.java
+ *
+ * Solves Connect 4 positions exactly: searches to the end of the game and
+ * gives the game-theoretic value rather than a heuristic evaluation.
+ *
+ * Scores count how early the game is won. A positive score means the player
+ * to move wins, and is (rows * columns / 2 + 1) minus the number of checkers the
+ * winner will have played in all; a negative score means the opponent wins
+ * the same way; 0 is a draw. So a win with the winner's last checker scores 1
+ * and a quicker win scores more.
+ *
+ * The search is negamax with alpha-beta on raw bitboards. The root value is
+ * found by null-window probes that halve the range of possible scores each
+ * time. Moves that hand the opponent an immediate win are never searched,
+ * moves are tried in order of how many new threats they create, and upper
+ * bounds are kept in a transposition table of their own, shared by each
+ * position and its mirror image.
+ *
+ * A solver works on one board size, which must fit in one long (7x6, 8x7 ...).
+ */
+
+public class Connect4Solver {
+	private final Connect4BoardSize size;
+	private final int slots; // cells on the board
+
+	// the closer a piece is to the center, the more 4-in-row permutations available.
+	private final int[] movesByCol;
+
+	private Connect4TranspositionTable table; // upper bounds of solved positions
+
+	private long nodes; // positions searched by the last solve
+
+	// per-ply scratch space for move ordering, so the search allocates nothing per node
+	private final long[][] orderedMoves;
+	private final long[][] orderedMirrors; // the same moves on the mirror image
+	private final int[][] orderScores;
+
+	// how far a checker in each column moves when the board is mirrored (negative: to the right)
+	private final int[] mirrorShifts;
+
+	/**
+	 * Create a solver for the standard board with a default-sized table
+	 */
+	public Connect4Solver(){
+		this(Connect4BoardSize.STANDARD);
+	}
+
+	/**
+	 * Create a solver for the standard board
+	 * @param table table to keep solved bounds in (don't share it with a heuristic search)
+	 */
+	public Connect4Solver(Connect4TranspositionTable table){
+		this(Connect4BoardSize.STANDARD, table);
+	}
+
+	/**
+	 * Create a solver with a default-sized table
+	 * @param boardSize the size of the boards to solve
+	 */
+	public Connect4Solver(Connect4BoardSize boardSize){
+		this(boardSize, new Connect4TranspositionTable(22, Connect4TranspositionTable.Replacement.ALWAYS));
+	}
+
+	/**
+	 * Create a solver
+	 * @param boardSize the size of the boards to solve, which must fit in one long
+	 * @param table table to keep solved bounds in (don't share it with a heuristic search)
+	 */
+	public Connect4Solver(Connect4BoardSize boardSize, Connect4TranspositionTable table){
+		if (!boardSize.fitsOneLong()){
+			throw new IllegalArgumentException("The solver needs a board of at most 64 bits, not " + boardSize);
+		}
+
+		this.size = boardSize;
+		this.slots = boardSize.getSlots();
+		this.movesByCol = boardSize.getColumnOrder();
+		this.table = table;
+
+		orderedMoves = new long[slots + 1][boardSize.getColumns()];
+		orderedMirrors = new long[slots + 1][boardSize.getColumns()];
+		orderScores = new int[slots + 1][boardSize.getColumns()];
+
+		mirrorShifts = new int[boardSize.getColumns()];
+		for (int column = 0; column < mirrorShifts.length; column++){
+			mirrorShifts[column] = (mirrorShifts.length - 1 - 2 * column) * boardSize.getHeight();
+		}
+	}
+
+	/**
+	 * Gets the board size the solver works on
+	 * @return the size
+	 */
+	public Connect4BoardSize getSize(){
+		return size;
+	}
+
+	/**
+	 * Gets the number of positions searched by the last solve
+	 * @return the node count
+	 */
+	public long getNodeCount(){
+		return nodes;
+	}
+
+	/**
+	 * Gets the solver's transposition table, with its hit statistics
+	 * @return the table
+	 */
+	public Connect4TranspositionTable getTable(){
+		return table;
+	}
+
+	/**
+	 * Solves a position and finds a move that gets its value
+	 *
+	 * @param state a position where the game isn't over
+	 * @return the score (see above) and the best move
+	 */
+	public Connect4Move solve(Connect4State state){
+		if (state.getSize() != size){
+			throw new IllegalArgumentException("The solver is for " + size + " boards, not " + state.getSize());
+		}
+
+		Connect4BitBoard board = new Connect4BitBoard(state);
+
+		return solve(board.getCurrent(), board.getMask(), board.getMovesPlayed());
+	}
+
+	/**
+	 * Solves a position given as bitboards, and finds a move that gets its value
+	 *
+	 * @param current checkers of the player to move
+	 * @param mask all occupied slots
+	 * @param moves number of moves played
+	 * @return the score (see above) and the best move
+	 */
+	public Connect4Move solve(long current, long mask, int moves){
+		if (moves >= slots || size.hasFour(current ^ mask)){
+			throw new IllegalArgumentException("The game is already over");
+		}
+
+		nodes = 0;
+
+		// a win right away needs no search
+		long winNow = size.winningSlots(current, mask) & size.possibleMoves(mask);
+		if (winNow != 0){
+			return new Connect4Move((slots + 1 - moves) / 2, columnOf(winNow));
+		}
+
+		int score = value(current, mask, moves);
+
+		// find a move that keeps the score: its reply can do no better than -score
+		for (int i = 0; i < movesByCol.length; i++){
+			int column = movesByCol[i];
+			long move = size.possibleMoves(mask) & size.columnMask(column);
+
+			if (move == 0){
+				continue;
+			}
+
+			long childCurrent = current ^ mask;
+			long childMask = mask | move;
+
+			if (moves + 1 == slots){
+				return new Connect4Move(0, column); // last slot on the board, a draw
+			}
+
+			// a move that lets the opponent win right away only keeps the score if it is that loss
+			int childScore;
+			if ((size.winningSlots(childCurrent, childMask) & size.possibleMoves(childMask)) != 0){
+				childScore = (slots - moves) / 2;
+			} else {
+				childScore = negamax(childCurrent, childMask, size.mirror(childCurrent), size.mirror(childMask),
+						moves + 1, -score, -score + 1);
+			}
+
+			if (-childScore >= score){
+				return new Connect4Move(score, column);
+			}
+		}
+
+		throw new IllegalStateException("No move reaches the solved score " + score);
+	}
+
+	/**
+	 * Gets the value of a position by narrowing the range of possible scores
+	 * with null-window searches
+	 *
+	 * @param current checkers of the player to move
+	 * @param mask all occupied slots
+	 * @param moves number of moves played
+	 * @return the score of the position
+	 */
+	public int value(long current, long mask, int moves){
+		long winNow = size.winningSlots(current, mask) & size.possibleMoves(mask);
+		if (winNow != 0){
+			return (slots + 1 - moves) / 2;
+		}
+
+		int min = -(slots - moves) / 2;
+		int max = (slots + 1 - moves) / 2;
+		long mirrorCurrent = size.mirror(current);
+		long mirrorMask = size.mirror(mask);
+
+		while (min < max){
+			int med = min + (max - min) / 2;
+
+			// lean the probes towards 0, where most positions end up
+			if (med <= 0 && min / 2 < med){
+				med = min / 2;
+			} else if (med >= 0 && max / 2 > med){
+				med = max / 2;
+			}
+
+			int result = negamax(current, mask, mirrorCurrent, mirrorMask, moves, med, med + 1);
+			if (result <= med){
+				max = result;
+			} else {
+				min = result;
+			}
+		}
+
+		return min;
+	}
+
+	/**
+	 * Number of plies until the game ends with best play, for a solved score
+	 *
+	 * @param score the score of a position
+	 * @param moves number of moves played in that position
+	 * @return plies until the win or loss, or until the board is full for a draw
+	 */
+	public int pliesToEnd(int score, int moves){
+		if (score == 0){
+			return slots - moves;
+		}
+
+		// checkers the winner has played when the game ends
+		int winnerCheckers = slots / 2 + 1 - Math.abs(score);
+
+		// the player to move now plays on even plies if they went first
+		boolean moverWins = score > 0;
+		boolean moverFirst = (moves % 2) == 0;
+		int lastMove = (moverWins == moverFirst) ? 2 * winnerCheckers - 1 : 2 * winnerCheckers;
+
+		return lastMove - moves;
+	}
+
+	/**
+	 * Negamax with alpha-beta pruning, to the end of the game.
+	 * The player to move must not be able to win right away.
+	 *
+	 * @param current checkers of the player to move
+	 * @param mask all occupied slots
+	 * @param mirrorCurrent current flipped left to right
+	 * @param mirrorMask mask flipped left to right
+	 * @param moves number of moves played
+	 * @param alpha a score the player can already get
+	 * @param beta a score the opponent can already hold the player to
+	 * @return the exact score if it is inside the window, otherwise a bound on it
+	 */
+	private int negamax(long current, long mask, long mirrorCurrent, long mirrorMask, int moves, int alpha, int beta){
+		nodes++;
+
+		long opponent = current ^ mask;
+		long possible = size.possibleMoves(mask);
+		long opponentWins = size.winningSlots(opponent, mask);
+		long forced = possible & opponentWins;
+
+		// moves that don't let the opponent win next
+		long next = possible;
+		if (forced != 0){
+			if ((forced & (forced - 1)) != 0){
+				return -(slots - moves) / 2; // two threats to block, the opponent wins
+			}
+			next = forced;
+		}
+		next &= ~(opponentWins >> 1); // don't play right under an opponent's winning slot
+
+		if (next == 0){
+			return -(slots - moves) / 2;
+		}
+
+		if (moves >= slots - 2){
+			return 0; // neither side can win with the last two checkers
+		}
+
+		// the opponent can't win next move, so the score is at least this
+		int min = -(slots - 2 - moves) / 2;
+		if (alpha < min){
+			alpha = min;
+			if (alpha >= beta){
+				return alpha;
+			}
+		}
+
+		// we can't win next move either, so the score is at most this
+		int max = (slots - 1 - moves) / 2;
+		// a position and its mirror image have the same score, so they share an entry
+		long key = Math.min(current + mask, mirrorCurrent + mirrorMask);
+		long entry = table.probe(key);
+		if (entry != Connect4TranspositionTable.MISS){
+			max = Connect4TranspositionTable.score(entry);
+		}
+		if (beta > max){
+			beta = max;
+			if (alpha >= beta){
+				return beta;
+			}
+		}
+
+		// order the moves by the number of winning slots they create
+		long[] ordered = orderedMoves[moves];
+		long[] mirrors = orderedMirrors[moves];
+		int[] scores = orderScores[moves];
+		int count = 0;
+
+		for (int i = 0; i < movesByCol.length; i++){
+			int column = movesByCol[i];
+			long move = next & size.columnMask(column);
+
+			if (move != 0){
+				int score = Long.bitCount(size.winningSlots(current | move, mask));
+				int shift = mirrorShifts[column];
+
+				// insertion sort, keeping center-first order between equals
+				int position = count++;
+				while (position > 0 && scores[position - 1] < score){
+					ordered[position] = ordered[position - 1];
+					mirrors[position] = mirrors[position - 1];
+					scores[position] = scores[position - 1];
+					position--;
+				}
+				ordered[position] = move;
+				mirrors[position] = (shift >= 0) ? move << shift : move >>> -shift;
+				scores[position] = score;
+			}
+		}
+
+		long mirrorOpponent = mirrorCurrent ^ mirrorMask;
+		for (int i = 0; i < count; i++){
+			long move = ordered[i];
+			int score = -negamax(opponent, mask | move, mirrorOpponent, mirrorMask | mirrors[i], moves + 1, -beta, -alpha);
+
+			if (score >= beta){
+				return score;
+			}
+			if (score > alpha){
+				alpha = score;
+			}
+		}
+
+		// every move was tried, so alpha is an upper bound on the score
+		table.store(key, 0, Connect4TranspositionTable.UPPER, -1, alpha);
+		return alpha;
+	}
+
+	/**
+	 * Gets the column of the lowest slot in a bitboard
+	 * @param slotBits a non-empty bitboard
+	 * @return the column
+	 */
+	private int columnOf(long slotBits){
+		return Long.numberOfTrailingZeros(slotBits) / size.getHeight();
+	}
+
+	/**
+	 * Solve the position after a sequence of moves
+	 * @param args the moves, one digit per move (e.g. "4453"), then optionally the board size (e.g. "8x7")
+	 */
+	public static void main(String[] args){
+		String moves = args.length > 0 ? args[0] : "";
+		Connect4BoardSize size = args.length > 1 ? Connect4BoardSize.parse(args[1]) : Connect4BoardSize.STANDARD;
+		Connect4Solver solver = new Connect4Solver(size);
+
+		long start = System.nanoTime();
+		Connect4Move best = solver.solve(Connect4Game.fromMoves(moves, new Player[2], size));
+		double millis = (System.nanoTime() - start) / 1e6;
+
+		System.out.println("score " + best.value + ", play " + best.move + ", game ends in "
+				+ solver.pliesToEnd(best.value, moves.length()) + " plies (" + solver.getNodeCount()
+				+ " nodes, " + String.format("%.0f", millis) + "ms)");
+	}
+}
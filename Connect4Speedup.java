@@ -0,0 +1,60 @@
+/**
+ * Connect4Speedup.java
+ * 
+ * Measures how the parallel search scales: searches a fixed set of
+ * positions at a fixed depth with 1, 2, 4, 8 and 16 threads and prints
+ * wall time, nodes and speedup over one thread.
+ * 
+ * Usage: java Connect4Speedup [depth] [thread counts...]
+ */
+
+public class Connect4Speedup {
+	// opening, middlegame and endgame positions as move sequences
+	public static final String[] POSITIONS = {
+		"", "3", "33", "3342", "334422", "33221155", "3332224444",
+		"3542565045", "05344101364103", "133105661310423045",
+		"0561364542252461305065", "03260001450041121152522126",
+		"606512166606011054335522231132"
+	};
+
+	public static void main(String[] args){
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+		int[] threadCounts = {1, 2, 4, 8, 16};
+
+		if (args.length > 1){
+			threadCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++){
+				threadCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		Connect4View view = new Connect4SilentView();
+		double baseTime = 0;
+
+		System.out.println("cores=" + Runtime.getRuntime().availableProcessors() + " depth=" + depth);
+		System.out.println("threads      ms       nodes  speedup");
+
+		for (int threads : threadCounts){
+			ComputerConnect4Player player = new ComputerConnect4Player("Computer", depth);
+			player.setThreads(threads);
+
+			long nodes = 0;
+			long start = System.nanoTime();
+
+			for (String moves : POSITIONS){
+				Connect4Game game = Connect4Game.fromMoves(moves, new Player[] {player, player});
+				player.getTable().clear();
+				player.getMove(game, view);
+				nodes += player.getNodeCount();
+			}
+
+			double millis = (System.nanoTime() - start) / 1e6;
+			if (baseTime == 0){
+				baseTime = millis;
+			}
+
+			System.out.printf("%7d %7.0f %11d  %6.2f%n", threads, millis, nodes, baseTime / millis);
+			player.setThreads(1);
+		}
+	}
+}
@@ -11,11 +11,20 @@ public interface Connect4State {
   public final static char CHECKER1 = 'O';     // Indicate second player's checker
   public final static char [] CHECKERS = {CHECKER0, CHECKER1};
   
+  /**
+   * Gets the size of the board. ROWS and COLS are the standard size;
+   * games on other boards override this.
+   * @return the board size
+   */
+  public default Connect4BoardSize getSize() {
+    return Connect4BoardSize.STANDARD;
+  }
+  
   /**
    * Gets a 2-D array representing the board.
    * The first subscript is the row number and the second the column number.
-   * The bottom of the board is row 0 and the top is row ROWS-1.
-   * The left side of the board is column 0 and the right side is column COLS-1.
+   * The bottom of the board is row 0 and the top is row getSize().getRows()-1.
+   * The left side of the board is column 0 and the right side is column getSize().getColumns()-1.
    * @return the board
    */
   public char [][] getBoard();
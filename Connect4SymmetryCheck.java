@@ -0,0 +1,147 @@
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Connect4SymmetryCheck.java
+ *
+ * Checks the canonical keys of Connect4BitBoard: plays random games,
+ * taking moves back now and then, and after every move compares the
+ * board's incrementally kept mirror image with one built from the mirrored
+ * board, and checks that canonicalMove turns moves back and forth. Then
+ * counts the positions up to a number of moves both ways, which is how
+ * much a table or book holding every one of them shrinks.
+ *
+ * Usage: java Connect4SymmetryCheck [games] [seed] [plies] [size]
+ */
+
+public class Connect4SymmetryCheck {
+	public static void main(String[] args){
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		int plies = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		Connect4BoardSize size = args.length > 3 ? Connect4BoardSize.parse(args[3]) : Connect4BoardSize.STANDARD;
+
+		if (!size.fitsOneLong()){
+			throw new IllegalArgumentException("Only boards of at most 64 bits are mirrored, not " + size);
+		}
+
+		Random random = new Random(seed);
+		Player[] players = new Player[2];
+		long positions = 0;
+
+		for (int g = 0; g < games; g++){
+			Connect4BitBoard state = new Connect4BitBoard(size, 0, players);
+
+			while (!state.gameIsOver()){
+				int column = random.nextInt(size.getColumns());
+				if (!state.isValidMove(column)){
+					continue;
+				}
+
+				int valueBefore = state.grabEvalValue();
+				state.makeMove(column);
+				check(state, g);
+				positions++;
+
+				if (state.getMovesPlayed() > 1 && random.nextInt(4) == 0){
+					state.undoMove(column, valueBefore);
+					check(state, g);
+				}
+			}
+		}
+
+		System.out.println(positions + " positions in " + games + " games on " + size + ": OK");
+
+		Set<Long> keys = new HashSet<Long>();
+		Set<Long> canonicalKeys = new HashSet<Long>();
+		collect(new Connect4BitBoard(size, 0, players), plies, keys, canonicalKeys);
+
+		System.out.println(String.format("positions in up to %d moves: %d, %d with mirror images folded (%.1f%%)",
+				plies, keys.size(), canonicalKeys.size(), 100.0 * canonicalKeys.size() / keys.size()));
+	}
+
+	/**
+	 * Compare the board's canonical key with one of its mirror image built from scratch
+	 *
+	 * @param state the position
+	 * @param g which game, for the report
+	 */
+	private static void check(Connect4BitBoard state, int g){
+		Connect4BoardSize size = state.getSize();
+		char[][] board = state.getBoard();
+		char[][] flipped = new char[board.length][];
+
+		for (int row = 0; row < board.length; row++){
+			flipped[row] = new StringBuilder(new String(board[row])).reverse().toString().toCharArray();
+		}
+
+		Connect4BitBoard mirror = new Connect4BitBoard(new Connect4Game(state.getPlayerNum(), state.getPlayers(),
+				flipped, state.getMovesPlayed(), state.grabEvalValue()));
+
+		boolean symmetric = state.getKey() == mirror.getKey();
+
+		if (mirror.getKey() != size.mirror(state.getKey())
+				|| state.getCanonicalKey() != Math.min(state.getKey(), mirror.getKey())
+				|| mirror.getCanonicalKey() != state.getCanonicalKey()){
+			fail(state, g, "canonical key " + Long.toHexString(state.getCanonicalKey()) + ", the mirror image's "
+					+ Long.toHexString(mirror.getCanonicalKey()));
+		}
+
+		if (state.isMirrored() == mirror.isMirrored() && !symmetric){
+			fail(state, g, "the board and its mirror image are both " + (state.isMirrored() ? "" : "not ") + "mirrored");
+		}
+
+		for (int column = 0; column < size.getColumns(); column++){
+			int canonical = state.canonicalMove(column);
+			int expected = state.isMirrored() ? size.getColumns() - 1 - column : column;
+
+			// the same move on the mirror image lands on the same canonical column
+			if (canonical != expected || state.canonicalMove(canonical) != column
+					|| (!symmetric && mirror.canonicalMove(size.getColumns() - 1 - column) != canonical)){
+				fail(state, g, "move " + column + " is " + canonical + " in the canonical orientation");
+			}
+		}
+	}
+
+	/**
+	 * Gather the keys of every position up to a number of moves
+	 *
+	 * @param state the position reached so far
+	 * @param plies moves left to make
+	 * @param keys position keys
+	 * @param canonicalKeys canonical keys
+	 */
+	private static void collect(Connect4BitBoard state, int plies, Set<Long> keys, Set<Long> canonicalKeys){
+		if (!keys.add(state.getKey())){
+			return;
+		}
+		canonicalKeys.add(state.getCanonicalKey());
+
+		if (plies == 0 || state.gameIsOver()){
+			return;
+		}
+
+		for (int column = 0; column < state.getSize().getColumns(); column++){
+			if (state.isValidMove(column)){
+				int evalValue = state.grabEvalValue();
+				state.makeMove(column);
+				collect(state, plies - 1, keys, canonicalKeys);
+				state.undoMove(column, evalValue);
+			}
+		}
+	}
+
+	/**
+	 * Print the position and stop
+	 */
+	private static void fail(Connect4BitBoard state, int g, String message){
+		System.out.println("FAILED in game " + g + " after " + state.getMovesPlayed() + " moves: " + message);
+
+		char[][] board = state.getBoard();
+		for (int row = board.length - 1; row >= 0; row--){
+			System.out.println(new String(board[row]));
+		}
+		System.exit(1);
+	}
+}
@@ -21,9 +21,9 @@ public class Connect4Text implements Connect4View{
 	public void display(Connect4State state){
 		char [][] board = state.getBoard();
 
-		for (int row = state.ROWS - 1; row > -1; row--){
+		for (int row = state.getSize().getRows() - 1; row > -1; row--){
 			System.out.print(row + " |");
-			for (int column = 0; column < state.COLS; column++){
+			for (int column = 0; column < state.getSize().getColumns(); column++){
 				System.out.print(board[row][column]);
 				System.out.print(" ");
 			}
@@ -31,7 +31,7 @@ public class Connect4Text implements Connect4View{
 		}
 
 		System.out.print("  ");
-		for (int column = 0; column < state.COLS; column++){
+		for (int column = 0; column < state.getSize().getColumns(); column++){
 			System.out.print(" "+column);
 		}
 
@@ -41,7 +41,7 @@ public class Connect4Text implements Connect4View{
 
 	/**
 	 * Asks the user for a move
-	 * The move will be in the range 0 to Connect4State.COLS-1.
+	 * The move will be in the range 0 to state.getSize().getColumns()-1.
 	 * @param state current state of the game
 	 * @return the number of the move that player chose
 	 */
@@ -57,13 +57,13 @@ public class Connect4Text implements Connect4View{
 		// validity checks
 		for(;;) {
 		    if(!column.hasNextInt() ) { 
-		        System.out.println("Integers from 0 to 6 allowed."); 
+		        System.out.println("Integers from 0 to " + (state.getSize().getColumns() - 1) + " allowed."); 
 				System.out.println("Please pick a column");
 		        column.next(); // discard
 		        continue;
 		    } 
 		    choose = column.nextInt();
-		    if( (choose < 0) || (choose > state.COLS - 1) ) {
+		    if( (choose < 0) || (choose > state.getSize().getColumns() - 1) ) {
 				System.out.println("Illegal column. Please try again");
 				System.out.println("Please pick a column");
 		        continue;
@@ -0,0 +1,127 @@
+/**
+ * Connect4ThreatEvaluator.java
+ * 
+ * Evaluation that understands zugzwang, following Allis' odd-even rules.
+ * 
+ * A threat is an empty slot that would complete a four-in-row. Rows are
+ * numbered from 1 at the bottom. When the board fills up, the first player
+ * gets the odd rows and the second player the even rows, so a first-player
+ * threat on an odd row (or a second-player threat on an even row) can be
+ * waited on until the opponent is forced to play underneath it. A threat
+ * only counts if the opponent has no threat lower in the same column, since
+ * the lower one gets played first.
+ * 
+ * The rules of zugzwang control used here:
+ *   - first player has a good (odd) threat, second player has no good
+ *     (even) threat: the first player should win
+ *   - second player has a good (even) threat, first player has no good
+ *     threat: the second player should win
+ * Otherwise each threat is scored by whether its row parity suits its owner.
+ * The window evaluation is added on top to rank quieter positions.
+ * 
+ * Everything is computed from the bitboards; nothing is allocated. The
+ * threats are only found on boards that fit in one long (7x6, 8x7 ...); on
+ * bigger boards this is the window evaluation alone, so that a game on
+ * them can still be played with this evaluator.
+ */
+
+public class Connect4ThreatEvaluator implements Connect4Evaluator{
+	public static final int WIN = 1000000;         // just won the game
+	public static final int ZUGZWANG = 10000;      // holds zugzwang control
+	public static final int GOOD_THREAT = 200;     // threat on a row of the owner's parity
+	public static final int OTHER_THREAT = 40;     // threat on the wrong parity or above an opponent's
+
+	private final Connect4Weights weights; // of the window evaluation added on top
+
+	/**
+	 * Create the evaluator with the hand-set window weights
+	 */
+	public Connect4ThreatEvaluator(){
+		this(Connect4Weights.DEFAULT);
+	}
+
+	/**
+	 * Create the evaluator with other window weights
+	 * @param weights the window weights
+	 */
+	public Connect4ThreatEvaluator(Connect4Weights weights){
+		this.weights = weights;
+	}
+
+	@Override
+	public int evaluate(Connect4BitBoard state){
+		Connect4BoardSize size = state.getSize();
+		if (!size.fitsOneLong()){
+			return state.grabEvalValue();
+		}
+
+		// rows 1, 3, 5 ... (indexes 0, 2, 4 ...) and rows 2, 4, 6 ...
+		long oddRows = size.getOddRows();
+		long evenRows = size.getBoardMask() & ~oddRows;
+
+		long mask = state.getMask();
+		long justMoved = state.getCurrent() ^ mask;
+		long toMove = state.getCurrent();
+
+		// the first player made the last move when an odd number have been played
+		boolean justMovedFirst = (state.getMovesPlayed() % 2) == 1;
+		long first = justMovedFirst ? justMoved : toMove;
+		long second = justMovedFirst ? toMove : justMoved;
+
+		long firstThreats = size.winningSlots(first, mask);
+		long secondThreats = size.winningSlots(second, mask);
+
+		int firstGood = 0, firstOther = 0, secondGood = 0, secondOther = 0;
+
+		for (int column = 0; column < size.getColumns(); column++){
+			long columnMask = size.columnMask(column);
+			long firstColumn = firstThreats & columnMask;
+			long secondColumn = secondThreats & columnMask;
+
+			// lowest threat of each player in the column (lower rows are lower bits)
+			long firstLowest = firstColumn & -firstColumn;
+			long secondLowest = secondColumn & -secondColumn;
+
+			if (firstLowest != 0){
+				if ((secondLowest == 0 || firstLowest < secondLowest) && (firstLowest & oddRows) != 0){
+					firstGood++;
+				} else {
+					firstOther += Long.bitCount(firstColumn);
+				}
+			}
+
+			if (secondLowest != 0){
+				if ((firstLowest == 0 || secondLowest < firstLowest) && (secondLowest & evenRows) != 0){
+					secondGood++;
+				} else {
+					secondOther += Long.bitCount(secondColumn);
+				}
+			}
+		}
+
+		int value = GOOD_THREAT * (firstGood - secondGood) + OTHER_THREAT * (firstOther - secondOther);
+
+		if (firstGood > 0 && secondGood == 0){
+			value += ZUGZWANG;
+		} else if (secondGood > 0 && firstGood == 0){
+			value -= ZUGZWANG;
+		}
+
+		// from the first player's view so far; turn it to the view of the player who just moved
+		if (!justMovedFirst){
+			value = -value;
+		}
+
+		return value + state.grabEvalValue();
+	}
+
+	@Override
+	public int winValue(){
+		return WIN;
+	}
+
+	@Override
+	public Connect4Weights getWeights(){
+		return weights;
+	}
+}
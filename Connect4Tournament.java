@@ -0,0 +1,523 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4Tournament.java
+ *
+ * Plays computer players against each other without a user: every pair of
+ * engines plays the given number of games, spread over all cores, each game
+ * on its own Connect4Game with newly made players. Prints win/draw/loss
+ * totals, Elo estimates and per-move latency percentiles, and writes every
+ * game to a CSV file.
+ *
+ * Each pair of games starts from the same random opening, with the engines
+ * swapping colors, and the openings come from the seed. Players that search
+ * to a fixed depth always answer the same way, so a tournament of them is
+ * reproduced exactly by running it again with the same seed. Players on a
+ * time budget depend on the speed of the machine and are not.
+ *
+ * The config file has one engine per line: a name, then key=value settings.
+ *   # name   settings
+ *   window8  depth=8
+ *   threat8  depth=8 evaluator=threat
+ *   timed    time=50 depth=20 driver=mtdf
+ *   tuned8   depth=8 weights=tuned.weights
+ * Settings are depth (default 8), time (milliseconds per move, default 0
+ * for a fixed depth), evaluator (window or threat), weights (a weight file
+ * from Connect4WeightTuner, default the hand-set weights), driver
+ * (alpha_beta, pvs or mtdf), table (log2 of the table size, default 18),
+ * solver (empty slots to solve at, default 0) and size (the board, columns
+ * x rows, default 7x6). Every engine must name the same size, at most 10
+ * columns so that each move is one digit in the results.
+ *
+ * Usage: Connect4Tournament config gamesPerPair [seed] [threads] [results.csv] [openingPlies]
+ */
+
+public class Connect4Tournament {
+	private static final int DEFAULT_OPENING_PLIES = 4; // random moves before the engines take over
+
+	/**
+	 * One engine from the config file
+	 */
+	private static class Engine {
+		String name;
+		int depth = 8;
+		long time = 0;
+		String evaluator = "window";
+		Connect4Weights weights = Connect4Weights.DEFAULT;
+		ComputerConnect4Player.Driver driver = ComputerConnect4Player.Driver.ALPHA_BETA;
+		int tableBits = 18;
+		int solver = 0;
+		Connect4BoardSize size = Connect4BoardSize.STANDARD;
+
+		/**
+		 * Make a new player with this engine's settings
+		 * @param playerName name of the player in the game
+		 * @return the player
+		 */
+		ComputerConnect4Player newPlayer(String playerName){
+			ComputerConnect4Player player = new ComputerConnect4Player(playerName, depth, time,
+					new Connect4TranspositionTable(tableBits, Connect4TranspositionTable.Replacement.DEPTH_PREFERRED));
+
+			player.setEvaluator(evaluator.equals("threat") ? new Connect4ThreatEvaluator(weights) : new Connect4WindowEvaluator(weights));
+			player.setDriver(driver);
+			player.setSolverThreshold(solver);
+			return player;
+		}
+	}
+
+	/**
+	 * The outcome of one game
+	 */
+	private static class GameResult {
+		int index;
+		int first;       // engine that moved first
+		int second;
+		String opening;
+		String moves;    // every move of the game
+		int winner;      // engine that won, -1 for a draw
+		long[][] latencies = new long[2][]; // nanoseconds per move, by seat
+	}
+
+	private final List<Engine> engines;
+	private final Connect4BoardSize size; // of every game
+	private final int gamesPerPair;
+	private final long seed;
+	private final int openingPlies;
+
+	/**
+	 * Create a tournament
+	 *
+	 * @param engines the engines taking part
+	 * @param gamesPerPair games each pair plays, rounded up to an even number
+	 * @param seed seed for the random openings
+	 * @param openingPlies random moves at the start of each game
+	 */
+	private Connect4Tournament(List<Engine> engines, int gamesPerPair, long seed, int openingPlies){
+		if (engines.size() < 2){
+			throw new IllegalArgumentException("A tournament needs at least two engines");
+		}
+		if (openingPlies < 0 || openingPlies > 6){
+			throw new IllegalArgumentException("Opening must be 0 to 6 moves, so that nobody has won yet");
+		}
+
+		size = engines.get(0).size;
+		for (Engine engine : engines){
+			if (engine.size != size){
+				throw new IllegalArgumentException("Engines play on different boards: " + engines.get(0).name + " on "
+						+ size + ", " + engine.name + " on " + engine.size);
+			}
+		}
+		if (size.getColumns() > 10){
+			throw new IllegalArgumentException("Boards of at most 10 columns can be played, not " + size);
+		}
+
+		this.engines = engines;
+		this.gamesPerPair = gamesPerPair + (gamesPerPair % 2);
+		this.seed = seed;
+		this.openingPlies = openingPlies;
+	}
+
+	/**
+	 * Read engines from a config file
+	 *
+	 * @param file the config file (see above)
+	 * @return the engines, in file order
+	 */
+	private static List<Engine> readConfig(String file) throws IOException {
+		List<Engine> engines = new ArrayList<Engine>();
+
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)){
+			String line;
+			int lineNumber = 0;
+
+			while ((line = reader.readLine()) != null){
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")){
+					continue;
+				}
+
+				String[] fields = line.split("\\s+");
+				Engine engine = new Engine();
+				engine.name = fields[0];
+
+				for (int i = 1; i < fields.length; i++){
+					String[] setting = fields[i].split("=", 2);
+					if (setting.length != 2){
+						throw new IllegalArgumentException(file + ":" + lineNumber + ": expected key=value, got " + fields[i]);
+					}
+
+					switch (setting[0]){
+					case "depth":
+						engine.depth = Integer.parseInt(setting[1]);
+						break;
+					case "time":
+						engine.time = Long.parseLong(setting[1]);
+						break;
+					case "evaluator":
+						if (!setting[1].equals("window") && !setting[1].equals("threat")){
+							throw new IllegalArgumentException(file + ":" + lineNumber + ": unknown evaluator " + setting[1]);
+						}
+						engine.evaluator = setting[1];
+						break;
+					case "weights":
+						engine.weights = new Connect4Weights(Paths.get(setting[1]));
+						break;
+					case "driver":
+						engine.driver = ComputerConnect4Player.Driver.valueOf(setting[1].toUpperCase());
+						break;
+					case "table":
+						engine.tableBits = Integer.parseInt(setting[1]);
+						break;
+					case "solver":
+						engine.solver = Integer.parseInt(setting[1]);
+						break;
+					case "size":
+						engine.size = Connect4BoardSize.parse(setting[1]);
+						break;
+					default:
+						throw new IllegalArgumentException(file + ":" + lineNumber + ": unknown setting " + setting[0]);
+					}
+				}
+
+				engines.add(engine);
+			}
+		}
+
+		return engines;
+	}
+
+	/**
+	 * Play every game
+	 *
+	 * @param threads number of games to play at once
+	 * @return the results, in game order
+	 */
+	private List<GameResult> play(int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<GameResult>> games = new ArrayList<Future<GameResult>>();
+		int index = 0;
+
+		try {
+			for (int a = 0; a < engines.size(); a++){
+				for (int b = a + 1; b < engines.size(); b++){
+					for (int game = 0; game < gamesPerPair; game++){
+						// both games of a pair share an opening, with the colors swapped
+						String opening = randomOpening(seed, index / 2);
+						int first = (game % 2 == 0) ? a : b;
+						int second = (game % 2 == 0) ? b : a;
+						int gameIndex = index++;
+
+						games.add(pool.submit(() -> playGame(gameIndex, first, second, opening)));
+					}
+				}
+			}
+
+			List<GameResult> results = new ArrayList<GameResult>();
+			for (Future<GameResult> game : games){
+				results.add(game.get());
+			}
+			return results;
+		} catch (ExecutionException e){
+			throw new IllegalStateException("A game failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Pick the random opening for a pair of games
+	 *
+	 * @param seed the tournament seed
+	 * @param pair which pair of games
+	 * @return the opening moves, one digit per move
+	 */
+	private String randomOpening(long seed, int pair){
+		Random random = new Random(seed * 1000003L + pair);
+		StringBuilder opening = new StringBuilder();
+		int[] heights = new int[size.getColumns()];
+
+		while (opening.length() < openingPlies){
+			int col = random.nextInt(size.getColumns());
+			if (heights[col] < size.getRows()){
+				heights[col]++;
+				opening.append(col);
+			}
+		}
+
+		return opening.toString();
+	}
+
+	/**
+	 * Play one game with new players
+	 *
+	 * @param index the game number
+	 * @param first engine that moves first
+	 * @param second engine that moves second
+	 * @param opening moves played before the engines take over
+	 * @return the result
+	 */
+	private GameResult playGame(int index, int first, int second, String opening){
+		Player[] players = new Player[2];
+		players[0] = engines.get(first).newPlayer(engines.get(first).name);
+		players[1] = engines.get(second).newPlayer(engines.get(second).name);
+
+		Connect4Game state = Connect4Game.fromMoves(opening, players, size);
+		Connect4View view = new Connect4SilentView();
+		StringBuilder moves = new StringBuilder(opening);
+
+		long[][] latencies = new long[2][size.getSlots()];
+		int[] moveCounts = new int[2];
+
+		while (!state.gameIsOver()){
+			// seat 0 is whoever moved first, which is the player to move when an even number of moves are played
+			int seat = moves.length() % 2;
+
+			long start = System.nanoTime();
+			int move = state.getPlayerToMove().getMove(state, view);
+			latencies[seat][moveCounts[seat]++] = System.nanoTime() - start;
+
+			state.makeMove(move);
+			moves.append(move);
+		}
+
+		GameResult result = new GameResult();
+		result.index = index;
+		result.first = first;
+		result.second = second;
+		result.opening = opening;
+		result.moves = moves.toString();
+
+		// the player who made the last move won, unless it only filled the board
+		Connect4BitBoard end = new Connect4BitBoard(state);
+		if (end.lastMoveWon()){
+			result.winner = (moves.length() % 2 == 1) ? first : second;
+		} else {
+			result.winner = -1;
+		}
+
+		for (int seat = 0; seat < 2; seat++){
+			result.latencies[seat] = Arrays.copyOf(latencies[seat], moveCounts[seat]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Estimate Elo ratings from the results with the Bradley-Terry model, a
+	 * draw counting as half a win for each side. Each pair also gets one
+	 * made-up draw so that an engine that won or lost every game still gets
+	 * a finite rating. Ratings average 0.
+	 *
+	 * @param results the games
+	 * @return the rating of each engine
+	 */
+	private double[] eloRatings(List<GameResult> results){
+		int n = engines.size();
+		double[][] score = new double[n][n]; // score[i][j]: points i took from j
+		double[][] games = new double[n][n];
+
+		for (int i = 0; i < n; i++){
+			for (int j = 0; j < n; j++){
+				if (i != j){
+					score[i][j] = 0.5;
+					games[i][j] = 1;
+				}
+			}
+		}
+
+		for (GameResult result : results){
+			games[result.first][result.second]++;
+			games[result.second][result.first]++;
+
+			if (result.winner < 0){
+				score[result.first][result.second] += 0.5;
+				score[result.second][result.first] += 0.5;
+			} else {
+				int loser = (result.winner == result.first) ? result.second : result.first;
+				score[result.winner][loser] += 1;
+			}
+		}
+
+		// minorization-maximization: strength = points / sum over games of 1 / (own + opponent's strength)
+		double[] strength = new double[n];
+		Arrays.fill(strength, 1.0);
+
+		for (int iteration = 0; iteration < 1000; iteration++){
+			double[] next = new double[n];
+			double change = 0;
+
+			for (int i = 0; i < n; i++){
+				double points = 0;
+				double sum = 0;
+				for (int j = 0; j < n; j++){
+					if (i != j){
+						points += score[i][j];
+						sum += games[i][j] / (strength[i] + strength[j]);
+					}
+				}
+				next[i] = points / sum;
+			}
+
+			// keep the geometric mean at 1, so ratings average 0
+			double logMean = 0;
+			for (int i = 0; i < n; i++){
+				logMean += Math.log(next[i]) / n;
+			}
+			for (int i = 0; i < n; i++){
+				next[i] /= Math.exp(logMean);
+				change = Math.max(change, Math.abs(next[i] - strength[i]));
+			}
+
+			strength = next;
+			if (change < 1e-9){
+				break;
+			}
+		}
+
+		double[] elo = new double[n];
+		for (int i = 0; i < n; i++){
+			elo[i] = 400 * Math.log10(strength[i]);
+		}
+		return elo;
+	}
+
+	/**
+	 * Print the standings: results, ratings and move latencies of each engine
+	 *
+	 * @param results the games
+	 */
+	private void report(List<GameResult> results){
+		int n = engines.size();
+		int[] wins = new int[n];
+		int[] draws = new int[n];
+		int[] losses = new int[n];
+		List<List<long[]>> latencies = new ArrayList<List<long[]>>();
+
+		for (int i = 0; i < n; i++){
+			latencies.add(new ArrayList<long[]>());
+		}
+
+		for (GameResult result : results){
+			if (result.winner < 0){
+				draws[result.first]++;
+				draws[result.second]++;
+			} else {
+				wins[result.winner]++;
+				losses[(result.winner == result.first) ? result.second : result.first]++;
+			}
+
+			latencies.get(result.first).add(result.latencies[0]);
+			latencies.get(result.second).add(result.latencies[1]);
+		}
+
+		double[] elo = eloRatings(results);
+
+		System.out.println(String.format("%-12s %6s %6s %6s %7s %9s %9s %9s %9s",
+				"engine", "wins", "draws", "losses", "elo", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+
+		for (int i = 0; i < n; i++){
+			long[] all = merge(latencies.get(i));
+			Arrays.sort(all);
+
+			System.out.println(String.format("%-12s %6d %6d %6d %+7.0f %9.2f %9.2f %9.2f %9.2f",
+					engines.get(i).name, wins[i], draws[i], losses[i], elo[i],
+					percentile(all, 50) / 1e6, percentile(all, 90) / 1e6, percentile(all, 99) / 1e6,
+					(all.length == 0 ? 0 : all[all.length - 1]) / 1e6));
+		}
+	}
+
+	/**
+	 * Join latency arrays into one
+	 */
+	private static long[] merge(List<long[]> parts){
+		int length = 0;
+		for (long[] part : parts){
+			length += part.length;
+		}
+
+		long[] all = new long[length];
+		int position = 0;
+		for (long[] part : parts){
+			System.arraycopy(part, 0, all, position, part.length);
+			position += part.length;
+		}
+		return all;
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted values
+	 *
+	 * @param sorted values in increasing order
+	 * @param percent which percentile
+	 * @return the value, 0 if there are none
+	 */
+	private static long percentile(long[] sorted, int percent){
+		if (sorted.length == 0){
+			return 0;
+		}
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(rank - 1, 0)];
+	}
+
+	/**
+	 * Write every game to a CSV file
+	 *
+	 * @param results the games
+	 * @param file where to write them
+	 */
+	private void writeResults(List<GameResult> results, String file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))){
+			out.println("game,first,second,opening,result,moves");
+
+			for (GameResult result : results){
+				String outcome = (result.winner < 0) ? "draw" : (result.winner == result.first) ? "1-0" : "0-1";
+				out.println(result.index + "," + engines.get(result.first).name + "," + engines.get(result.second).name
+						+ "," + result.opening + "," + outcome + "," + result.moves);
+			}
+		}
+	}
+
+	/**
+	 * Run a tournament
+	 * @param args config file, games per pair, then optionally the seed, thread count,
+	 * CSV file to write and number of random opening moves
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2){
+			System.err.println("Usage: Connect4Tournament config gamesPerPair [seed] [threads] [results.csv] [openingPlies]");
+			System.exit(2);
+		}
+
+		List<Engine> engines = readConfig(args[0]);
+		int gamesPerPair = Integer.parseInt(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		String csv = args.length > 4 ? args[4] : "tournament.csv";
+		int openingPlies = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_OPENING_PLIES;
+
+		Connect4Tournament tournament = new Connect4Tournament(engines, gamesPerPair, seed, openingPlies);
+
+		long start = System.nanoTime();
+		List<GameResult> results = tournament.play(threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(results.size() + " games of " + tournament.size + " on " + threads + " thread(s) in "
+				+ String.format("%.1f", seconds) + "s, seed " + seed);
+		tournament.report(results);
+		tournament.writeResults(results, csv);
+	}
+}
@@ -0,0 +1,103 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Connect4TraceFile.java
+ * 
+ * Search listener that writes the searched tree to a file, one line per
+ * event, buffered. Each line starts with a letter for the event, then the
+ * ply (moves played) of the position, so the tree can be rebuilt by
+ * reading the lines in order:
+ * 
+ *   N ply key depth low high         node entered (key in hex)
+ *   M ply column                     move tried
+ *   C ply column value               cutoff
+ *   R ply depth value move bound T   result (bound E/L/U, T if from the table)
+ * 
+ * Usage: java Connect4TraceFile moves depth file
+ */
+
+public class Connect4TraceFile implements Connect4SearchListener, Closeable {
+	private static final char[] BOUNDS = {'?', 'E', 'L', 'U'};
+
+	private BufferedWriter out;
+
+	/**
+	 * Open the trace file, replacing what was there
+	 * @param path the file to write
+	 * @throws IOException if the file can't be opened
+	 */
+	public Connect4TraceFile(String path) throws IOException {
+		out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public void nodeEntered(Connect4BitBoard state, int depth, int low, int high){
+		write("N " + state.getMovesPlayed() + " " + Long.toHexString(state.getKey()) + " "
+				+ depth + " " + low + " " + high);
+	}
+
+	@Override
+	public void moveTried(Connect4BitBoard state, int column){
+		write("M " + state.getMovesPlayed() + " " + column);
+	}
+
+	@Override
+	public void cutoff(Connect4BitBoard state, int column, int value){
+		write("C " + state.getMovesPlayed() + " " + column + " " + value);
+	}
+
+	@Override
+	public void result(Connect4BitBoard state, int depth, int value, int move, int bound, boolean fromTable){
+		write("R " + state.getMovesPlayed() + " " + depth + " " + value + " " + move + " "
+				+ BOUNDS[bound] + (fromTable ? " T" : ""));
+	}
+
+	/**
+	 * Write one event line
+	 * @param line the event
+	 */
+	private void write(String line){
+		try {
+			out.write(line);
+			out.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Flush and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Dump the tree searched from one position
+	 * @param args the moves leading to the position, the depth and the file name
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3){
+			System.err.println("Usage: java Connect4TraceFile moves depth file");
+			System.exit(2);
+		}
+
+		ComputerConnect4Player player = new ComputerConnect4Player("Computer", Integer.parseInt(args[1]));
+		Connect4Game game = Connect4Game.fromMoves(args[0], new Player[] {player, player});
+
+		try (Connect4TraceFile trace = new Connect4TraceFile(args[2])) {
+			player.setSearchListener(trace);
+			long result = player.search(new Connect4BitBoard(game), Integer.parseInt(args[1]));
+
+			System.out.println("move " + ComputerConnect4Player.moveOf(result) + " value "
+					+ ComputerConnect4Player.valueOf(result) + ", " + player.getNodeCount() + " nodes");
+		}
+	}
+}
@@ -0,0 +1,257 @@
+import java.util.Arrays;
+
+/**
+ * Connect4TranspositionTable.java
+ *
+ * Fixed-size cache of search results, so that a position reached through
+ * different move orders is only searched once. The search keys it by
+ * Connect4BitBoard.getCanonicalKey, so a position and its mirror image
+ * share one entry; best moves are stored in the canonical orientation.
+ *
+ * Entries live in two parallel long arrays: the position key and a packed
+ * record of (score, best move, bound type, depth, generation). Nothing is
+ * allocated after construction.
+ *
+ * The table is meant to be kept from move to move. Each new search bumps the
+ * generation. Entries from the last two searches keep their slot if they are
+ * deeper; older ones can still be found but give way to any new result, so
+ * the table ages instead of being cleared.
+ *
+ * Several search threads may share one table without locking: the key slot
+ * holds (key ^ entry), so an entry torn by two threads writing at once no
+ * longer matches its key and reads as a miss. The statistics are not
+ * synchronized and are approximate when the table is shared.
+ */
+
+public class Connect4TranspositionTable {
+	// bound types
+	public static final int EXACT = 1;  // score is the true value
+	public static final int LOWER = 2;  // search failed high, true value is at least score
+	public static final int UPPER = 3;  // search failed low, true value is at most score
+
+	public static final long MISS = 0; // returned by probe when nothing is stored
+
+	public static final int DEFAULT_SIZE_BITS = 20; // 2^20 entries, 16MB
+
+	/**
+	 * What to do when a new result lands on an occupied slot
+	 */
+	public enum Replacement {
+		ALWAYS,          // newest result wins
+		DEPTH_PREFERRED  // keep the deeper search unless it is stale or the same position
+	}
+
+	private static final int GENERATIONS = 256; // generation wraps around in 8 bits
+
+	private long[] keys;
+	private long[] entries;
+	private int indexMask;
+	private Replacement replacement;
+	private int generation; // number of the current search, mod GENERATIONS
+
+	// statistics for sizing the table
+	private long probes;
+	private long hits;
+	private long stores;
+	private long overwrites;
+
+	/**
+	 * Create a table with the default size and depth-preferred replacement
+	 */
+	public Connect4TranspositionTable(){
+		this(DEFAULT_SIZE_BITS, Replacement.DEPTH_PREFERRED);
+	}
+
+	/**
+	 * Create a table
+	 *
+	 * @param sizeBits the table holds 2^sizeBits entries
+	 * @param replacement the replacement policy
+	 */
+	public Connect4TranspositionTable(int sizeBits, Replacement replacement){
+		if (sizeBits < 1 || sizeBits > 30){
+			throw new IllegalArgumentException("Table size must be 2^1 to 2^30 entries");
+		}
+
+		keys = new long[1 << sizeBits];
+		entries = new long[1 << sizeBits];
+		indexMask = (1 << sizeBits) - 1;
+		this.replacement = replacement;
+	}
+
+	/**
+	 * Look up a position
+	 *
+	 * @param key the position key
+	 * @return the packed entry, or MISS
+	 */
+	public long probe(long key){
+		int index = index(key);
+		long entry = entries[index];
+		probes++;
+
+		if (entry != MISS && (keys[index] ^ entry) == key){
+			hits++;
+			return entry;
+		}
+
+		return MISS;
+	}
+
+	/**
+	 * Record the result of a search
+	 *
+	 * @param key the position key
+	 * @param depth the depth that was searched
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param move the best move found
+	 * @param score the value found
+	 */
+	public void store(long key, int depth, int bound, int move, int score){
+		int index = index(key);
+		long old = entries[index];
+
+		if (old != MISS && (keys[index] ^ old) != key){
+			if (replacement == Replacement.DEPTH_PREFERRED && depth(old) > depth && !isStale(old)){
+				return;
+			}
+			overwrites++;
+		}
+
+		long entry = pack(depth, bound, move, score, generation);
+		keys[index] = key ^ entry;
+		entries[index] = entry;
+		stores++;
+	}
+
+	/**
+	 * Start a new search: entries stored from now on belong to a new
+	 * generation, and those from before the last search become stale
+	 */
+	public void newSearch(){
+		generation = (generation + 1) % GENERATIONS;
+	}
+
+	/**
+	 * Is an entry from before the last search?
+	 * @param entry a packed entry
+	 * @return true if it is stale
+	 */
+	private boolean isStale(long entry){
+		return (generation - generation(entry) + GENERATIONS) % GENERATIONS > 1;
+	}
+
+	/**
+	 * Empty the table and reset the statistics
+	 */
+	public void clear(){
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, MISS);
+		probes = hits = stores = overwrites = 0;
+	}
+
+	/**
+	 * Packs an entry: score in the low 32 bits, then move + 1, bound, depth and generation
+	 */
+	public static long pack(int depth, int bound, int move, int score, int generation){
+		return (score & 0xFFFFFFFFL) | ((long) (move + 1) << 32) | ((long) bound << 40)
+				| ((long) depth << 42) | ((long) generation << 50);
+	}
+
+	/**
+	 * @param entry a packed entry
+	 * @return the stored score
+	 */
+	public static int score(long entry){
+		return (int) entry;
+	}
+
+	/**
+	 * @param entry a packed entry
+	 * @return the stored best move, -1 if none
+	 */
+	public static int move(long entry){
+		return (int) ((entry >>> 32) & 0xFF) - 1;
+	}
+
+	/**
+	 * @param entry a packed entry
+	 * @return EXACT, LOWER or UPPER
+	 */
+	public static int bound(long entry){
+		return (int) ((entry >>> 40) & 0x3);
+	}
+
+	/**
+	 * @param entry a packed entry
+	 * @return the stored search depth
+	 */
+	public static int depth(long entry){
+		return (int) ((entry >>> 42) & 0xFF);
+	}
+
+	/**
+	 * @param entry a packed entry
+	 * @return the generation of the search that stored it
+	 */
+	public static int generation(long entry){
+		return (int) ((entry >>> 50) & 0xFF);
+	}
+
+	/**
+	 * Spread the key bits over the index (Fibonacci hashing)
+	 */
+	private int index(long key){
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & indexMask;
+	}
+
+	/**
+	 * @return number of entries the table can hold
+	 */
+	public int size(){
+		return keys.length;
+	}
+
+	/**
+	 * Counts the slots holding an entry (looks at every slot)
+	 * @return number of entries stored
+	 */
+	public int countEntries(){
+		int count = 0;
+		for (long entry : entries){
+			if (entry != MISS){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public long getProbes(){
+		return probes;
+	}
+
+	public long getHits(){
+		return hits;
+	}
+
+	public long getStores(){
+		return stores;
+	}
+
+	public long getOverwrites(){
+		return overwrites;
+	}
+
+	/**
+	 * @return fraction of probes that found the position
+	 */
+	public double getHitRate(){
+		return probes == 0 ? 0.0 : (double) hits / probes;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("table size=%d probes=%d hits=%d (%.1f%%) stores=%d overwrites=%d",
+				size(), probes, hits, 100.0 * getHitRate(), stores, overwrites);
+	}
+}
@@ -0,0 +1,398 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4WeightTuner.java
+ *
+ * Fits the window weights (see Connect4Weights) to the outcomes of played
+ * games, and writes them to a weight file that the computer player can
+ * search with (new Connect4WindowEvaluator(new Connect4Weights(path)), or
+ * weights=file in a Connect4Tournament config).
+ *
+ * The games are read from the CSV file Connect4Tournament writes, so a
+ * tournament of computer players makes the corpus. Every position of every
+ * game, after the first move and before the last, becomes one example: the
+ * number of unblocked windows with 1, 2 and 3 checkers of the player who
+ * just moved, less those of the other player, and whether that player won
+ * (1), drew (1/2) or lost (0). The weights w1..w3 are fitted by logistic
+ * regression, i.e. so that
+ *   P(win) = 1 / (1 + e^-(w1 f1 + w2 f2 + w3 f3 + b))
+ * minimizes the logistic loss (cross-entropy), where b is one bias for
+ * positions the first player has just moved in and one for the second.
+ * The biases only say who is ahead in general, which moves in the same
+ * search don't differ in, so they aren't written out.
+ *
+ * The loss is minimized by Newton's method: every iteration the gradient
+ * and Hessian of the loss are summed over the positions in parallel, one
+ * slice of the corpus per thread. For comparison the hand-set weights are
+ * fitted too, with only their scale (and the biases) free.
+ *
+ * The weights are written scaled to SCALE per unit of log-odds, and the
+ * four-in-row weight stays the hand-set one. Positions are held in 5 bytes
+ * each, so tens of millions fit in memory.
+ *
+ * Usage: Connect4WeightTuner games.csv out.weights [threads]
+ */
+
+public class Connect4WeightTuner {
+	public static final int SCALE = 1000; // weight units per unit of log-odds
+
+	private static final int RECORD_SIZE = 5; // f1, f2, f3, who just moved, outcome in halves
+	private static final int MAX_ITERATIONS = 50;
+	private static final double TOLERANCE = 1e-10; // stop once a step changes no parameter by more
+
+	private final int threads;
+
+	private byte[] positions = new byte[1 << 16];
+	private int count; // positions read
+
+	/**
+	 * Create a tuner
+	 *
+	 * @param threads number of threads to sum the gradient on
+	 */
+	public Connect4WeightTuner(int threads){
+		if (threads < 1){
+			throw new IllegalArgumentException("Need at least one thread");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Gets the number of positions read so far
+	 * @return the position count
+	 */
+	public int getPositionCount(){
+		return count;
+	}
+
+	/**
+	 * Read the games of a tournament CSV file (game,first,second,opening,result,moves)
+	 *
+	 * @param input the file, header included
+	 * @return number of games read
+	 */
+	public int readGames(BufferedReader input) throws IOException {
+		int games = 0;
+		String line;
+
+		while ((line = input.readLine()) != null){
+			String[] fields = line.split(",");
+			if (fields.length != 6 || fields[0].equals("game")){
+				continue;
+			}
+
+			// outcome for the first player, in halves
+			int firstOutcome;
+			switch (fields[4]){
+			case "1-0":
+				firstOutcome = 2;
+				break;
+			case "0-1":
+				firstOutcome = 0;
+				break;
+			case "draw":
+				firstOutcome = 1;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown result " + fields[4] + " in: " + line);
+			}
+
+			addGame(fields[5], firstOutcome);
+			games++;
+		}
+
+		return games;
+	}
+
+	/**
+	 * Add the positions of one game
+	 *
+	 * @param moves the moves of the game, one digit per move
+	 * @param firstOutcome 2 if the first player won, 1 for a draw, 0 if the second won
+	 */
+	private void addGame(String moves, int firstOutcome){
+		Connect4BitBoard state = new Connect4BitBoard(0, new Player[2]);
+		long[] windows = state.getSize().getWindows();
+
+		for (int i = 0; i < moves.length() - 1; i++){
+			state.makeMove(moves.charAt(i) - '0');
+
+			long justMoved = state.getCurrent() ^ state.getMask();
+			long toMove = state.getCurrent();
+			int[] features = new int[4];
+
+			for (long window : windows){
+				int mine = Long.bitCount(justMoved & window);
+				int theirs = Long.bitCount(toMove & window);
+
+				if (theirs == 0){
+					features[mine]++;
+				} else if (mine == 0){
+					features[theirs]--;
+				}
+			}
+
+			if ((count + 1) * RECORD_SIZE > positions.length){
+				positions = Arrays.copyOf(positions, positions.length * 2);
+			}
+
+			boolean firstJustMoved = (i % 2) == 0;
+			int offset = count * RECORD_SIZE;
+			positions[offset] = (byte) features[1];
+			positions[offset + 1] = (byte) features[2];
+			positions[offset + 2] = (byte) features[3];
+			positions[offset + 3] = (byte) (firstJustMoved ? 0 : 1);
+			positions[offset + 4] = (byte) (firstJustMoved ? firstOutcome : 2 - firstOutcome);
+			count++;
+		}
+	}
+
+	/**
+	 * Fit the weights, or only the scale of fixed weights, by Newton's method
+	 *
+	 * @param fixed weights to fit the scale of, or null to fit w1..w3
+	 * @param report print the loss after every iteration
+	 * @return the parameters: w1..w3 (or the scale) then the two biases, and last the loss
+	 */
+	public double[] fit(int[] fixed, boolean report) throws InterruptedException {
+		if (count == 0){
+			throw new IllegalStateException("No positions to fit the weights to");
+		}
+
+		int parameters = (fixed == null) ? 5 : 3;
+		double[] theta = new double[parameters];
+		double loss = 0;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int iteration = 1; iteration <= MAX_ITERATIONS; iteration++){
+				double[] sums = sumInParallel(pool, theta, fixed);
+				loss = sums[0] / count;
+
+				double[] gradient = new double[parameters];
+				double[][] hessian = new double[parameters][parameters];
+				for (int j = 0; j < parameters; j++){
+					gradient[j] = sums[1 + j] / count;
+					for (int k = 0; k < parameters; k++){
+						hessian[j][k] = sums[1 + parameters + j * parameters + k] / count;
+					}
+				}
+
+				double[] step = solve(hessian, gradient);
+				double largest = 0;
+				for (int j = 0; j < parameters; j++){
+					theta[j] -= step[j];
+					largest = Math.max(largest, Math.abs(step[j]));
+				}
+
+				if (report){
+					System.out.println(String.format("  iteration %2d: loss %.6f", iteration, loss));
+				}
+				if (largest < TOLERANCE){
+					break;
+				}
+			}
+
+			loss = sumInParallel(pool, theta, fixed)[0] / count;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double[] result = Arrays.copyOf(theta, parameters + 1);
+		result[parameters] = loss;
+		return result;
+	}
+
+	/**
+	 * Sum the loss, gradient and Hessian over every position, one slice of
+	 * the positions per thread
+	 *
+	 * @param pool the threads
+	 * @param theta the parameters so far
+	 * @param fixed see fit
+	 * @return the loss, then the gradient, then the Hessian row by row
+	 */
+	private double[] sumInParallel(ExecutorService pool, double[] theta, int[] fixed) throws InterruptedException {
+		List<Future<double[]>> slices = new ArrayList<Future<double[]>>();
+		int sliceSize = (count + threads - 1) / threads;
+
+		for (int start = 0; start < count; start += sliceSize){
+			int from = start;
+			int to = Math.min(count, start + sliceSize);
+			Callable<double[]> slice = () -> sum(from, to, theta, fixed);
+			slices.add(pool.submit(slice));
+		}
+
+		double[] total = null;
+		try {
+			for (Future<double[]> slice : slices){
+				double[] sums = slice.get();
+				if (total == null){
+					total = sums;
+				} else {
+					for (int j = 0; j < total.length; j++){
+						total[j] += sums[j];
+					}
+				}
+			}
+		} catch (ExecutionException e){
+			throw new IllegalStateException("Summing the gradient failed", e.getCause());
+		}
+
+		return total;
+	}
+
+	/**
+	 * Sum the loss, gradient and Hessian over a slice of the positions
+	 *
+	 * @param from first position
+	 * @param to end of the slice (exclusive)
+	 * @param theta the parameters so far
+	 * @param fixed see fit
+	 * @return the loss, then the gradient, then the Hessian row by row
+	 */
+	private double[] sum(int from, int to, double[] theta, int[] fixed){
+		int parameters = theta.length;
+		double[] sums = new double[1 + parameters + parameters * parameters];
+		double[] x = new double[parameters];
+
+		for (int i = from; i < to; i++){
+			int offset = i * RECORD_SIZE;
+
+			// the features of this position
+			if (fixed == null){
+				x[0] = positions[offset];
+				x[1] = positions[offset + 1];
+				x[2] = positions[offset + 2];
+			} else {
+				x[0] = fixed[1] * positions[offset] + fixed[2] * positions[offset + 1] + fixed[3] * positions[offset + 2];
+			}
+			x[parameters - 2] = (positions[offset + 3] == 0) ? 1 : 0;
+			x[parameters - 1] = 1 - x[parameters - 2];
+
+			double z = 0;
+			for (int j = 0; j < parameters; j++){
+				z += theta[j] * x[j];
+			}
+
+			double p = 1 / (1 + Math.exp(-z));
+			double y = positions[offset + 4] / 2.0;
+
+			// -y log p - (1 - y) log (1 - p), written so that it doesn't overflow
+			sums[0] += Math.max(z, 0) - y * z + Math.log1p(Math.exp(-Math.abs(z)));
+
+			double error = p - y;
+			double curvature = p * (1 - p);
+			for (int j = 0; j < parameters; j++){
+				sums[1 + j] += error * x[j];
+				for (int k = 0; k < parameters; k++){
+					sums[1 + parameters + j * parameters + k] += curvature * x[j] * x[k];
+				}
+			}
+		}
+
+		return sums;
+	}
+
+	/**
+	 * Solve a small system of linear equations by Gaussian elimination
+	 *
+	 * @param matrix the coefficients, which are changed
+	 * @param vector the right-hand side, which is changed
+	 * @return the solution
+	 */
+	private static double[] solve(double[][] matrix, double[] vector){
+		int n = vector.length;
+
+		for (int column = 0; column < n; column++){
+			// pivot on the largest entry left in the column
+			int pivot = column;
+			for (int row = column + 1; row < n; row++){
+				if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])){
+					pivot = row;
+				}
+			}
+			if (matrix[pivot][column] == 0){
+				throw new IllegalStateException("The positions don't tell the weights apart (singular Hessian)");
+			}
+
+			double[] rowSwap = matrix[column];
+			matrix[column] = matrix[pivot];
+			matrix[pivot] = rowSwap;
+			double swap = vector[column];
+			vector[column] = vector[pivot];
+			vector[pivot] = swap;
+
+			for (int row = column + 1; row < n; row++){
+				double factor = matrix[row][column] / matrix[column][column];
+				for (int k = column; k < n; k++){
+					matrix[row][k] -= factor * matrix[column][k];
+				}
+				vector[row] -= factor * vector[column];
+			}
+		}
+
+		double[] solution = new double[n];
+		for (int row = n - 1; row >= 0; row--){
+			double sum = vector[row];
+			for (int k = row + 1; k < n; k++){
+				sum -= matrix[row][k] * solution[k];
+			}
+			solution[row] = sum / matrix[row][row];
+		}
+		return solution;
+	}
+
+	/**
+	 * Tune the weights on a tournament's games and write them out
+	 * @param args the tournament CSV file, the weight file to write, then optionally the thread count
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2){
+			System.err.println("Usage: Connect4WeightTuner games.csv out.weights [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Connect4WeightTuner tuner = new Connect4WeightTuner(threads);
+
+		int games;
+		try (BufferedReader input = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.US_ASCII)){
+			games = tuner.readGames(input);
+		}
+		System.out.println(tuner.getPositionCount() + " positions from " + games + " games");
+
+		long start = System.nanoTime();
+		double[] hand = tuner.fit(ComputerConnect4Player.HOW_GOOD, false);
+		System.out.println(String.format("hand-set weights %s at their best scale: loss %.6f",
+				Connect4Weights.DEFAULT, hand[3]));
+
+		System.out.println("fitting on " + threads + " thread(s):");
+		double[] tuned = tuner.fit(null, true);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Connect4Weights weights = new Connect4Weights(new int[] {0,
+				(int) Math.round(tuned[0] * SCALE), (int) Math.round(tuned[1] * SCALE),
+				(int) Math.round(tuned[2] * SCALE), ComputerConnect4Player.HOW_GOOD[4]});
+
+		System.out.println(String.format("tuned weights %s: loss %.6f (log-odds per window %.4f %.4f %.4f,"
+				+ " biases %.4f %.4f) in %.1fs", weights, tuned[5], tuned[0], tuned[1], tuned[2], tuned[3], tuned[4], seconds));
+
+		weights.write(Paths.get(args[1]), String.format("tuned on %d positions from %s, loss %.6f"
+				+ " (hand-set weights %.6f)\n0 to 4 checkers of one player in an unblocked window",
+				tuner.getPositionCount(), Paths.get(args[0]).getFileName(), tuned[5], hand[3]));
+		System.out.println("wrote " + args[1]);
+	}
+}
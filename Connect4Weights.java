@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connect4Weights.java
+ *
+ * The weights of the window evaluation: what an unblocked four-in-row
+ * window is worth with 0 to 4 checkers of one player in it (see
+ * Connect4Game.applyWeights). DEFAULT is the hand-set weights,
+ * ComputerConnect4Player.HOW_GOOD; Connect4WeightTuner fits others from
+ * played games and writes them to a file.
+ *
+ * File layout (text): lines starting with # are comments, and the rest
+ * hold the five weights, separated by spaces, e.g.
+ *   # tuned on 484061 positions
+ *   0 84 157 530 100000000
+ * The first weight must be 0, and the last is the value of four in a row.
+ */
+
+public final class Connect4Weights {
+	public static final Connect4Weights DEFAULT = new Connect4Weights(ComputerConnect4Player.HOW_GOOD);
+
+	private final int[] values; // index is # of checkers in the window
+
+	/**
+	 * Create weights
+	 * @param weights value of a window with 0 to 4 checkers of one player
+	 */
+	public Connect4Weights(int[] weights){
+		if (weights.length != 5 || weights[0] != 0){
+			throw new IllegalArgumentException("Need five weights, the first 0: " + Arrays.toString(weights));
+		}
+		values = weights.clone();
+	}
+
+	/**
+	 * Read weights from a file
+	 * @param path the weight file
+	 * @throws IOException if the file can't be read or doesn't hold five weights
+	 */
+	public Connect4Weights(Path path) throws IOException {
+		this(read(path));
+	}
+
+	/**
+	 * Parse a weight file
+	 */
+	private static int[] read(Path path) throws IOException {
+		List<String> numbers = new ArrayList<String>();
+
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)){
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")){
+				numbers.addAll(Arrays.asList(line.split("\\s+")));
+			}
+		}
+
+		if (numbers.size() != 5){
+			throw new IOException("Not a weight file (expected five weights): " + path);
+		}
+
+		int[] weights = new int[5];
+		for (int i = 0; i < 5; i++){
+			try {
+				weights[i] = Integer.parseInt(numbers.get(i));
+			} catch (NumberFormatException e){
+				throw new IOException("Not a weight file (bad weight " + numbers.get(i) + "): " + path);
+			}
+		}
+
+		if (weights[0] != 0){
+			throw new IOException("Not a weight file (the first weight must be 0): " + path);
+		}
+		return weights;
+	}
+
+	/**
+	 * Write the weights to a file
+	 * @param path where to write them
+	 * @param comment written above the weights, one comment line per line; null for none
+	 */
+	public void write(Path path, String comment) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))){
+			if (comment != null){
+				for (String line : comment.split("\n")){
+					out.println("# " + line);
+				}
+			}
+			out.println(values[0] + " " + values[1] + " " + values[2] + " " + values[3] + " " + values[4]);
+		}
+	}
+
+	/**
+	 * Gets the value of a window
+	 * @param checkers number of one player's checkers in the window, none of the other's
+	 * @return the weight
+	 */
+	public int get(int checkers){
+		return values[checkers];
+	}
+
+	/**
+	 * Add the value of a window to a sum, as Connect4Game.applyWeights does
+	 * with the default weights
+	 *
+	 * @param playerCount the number of pieces player has in the connect 4 line
+	 * @param opponentCount the number of pieces opponent has in the connect 4 line
+	 * @param sum the weighted sum so far
+	 * @return the new sum after applying the weights
+	 */
+	public int apply(int playerCount, int opponentCount, int sum){
+		if (playerCount == 0){
+			sum = sum - values[opponentCount];
+		} else if (opponentCount == 0){
+			sum = sum + values[playerCount];
+		}
+
+		return sum;
+	}
+
+	@Override
+	public boolean equals(Object other){
+		return other instanceof Connect4Weights && Arrays.equals(values, ((Connect4Weights) other).values);
+	}
+
+	@Override
+	public int hashCode(){
+		return Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString(){
+		return Arrays.toString(values);
+	}
+}
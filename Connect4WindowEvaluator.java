@@ -0,0 +1,42 @@
+/**
+ * Connect4WindowEvaluator.java
+ * 
+ * The standard evaluation: unblocked four-in-row windows weighted by
+ * ComputerConnect4Player.HOW_GOOD, or by weights from Connect4WeightTuner.
+ * The board keeps this value up to date as moves are made, so evaluating
+ * is free.
+ */
+
+public class Connect4WindowEvaluator implements Connect4Evaluator{
+	private final Connect4Weights weights;
+
+	/**
+	 * Create the evaluator with the hand-set weights
+	 */
+	public Connect4WindowEvaluator(){
+		this(Connect4Weights.DEFAULT);
+	}
+
+	/**
+	 * Create the evaluator with other weights
+	 * @param weights the window weights, the last of which is the value of a win
+	 */
+	public Connect4WindowEvaluator(Connect4Weights weights){
+		this.weights = weights;
+	}
+
+	@Override
+	public int evaluate(Connect4BitBoard state){
+		return state.grabEvalValue();
+	}
+
+	@Override
+	public int winValue(){
+		return weights.get(4);
+	}
+
+	@Override
+	public Connect4Weights getWeights(){
+		return weights;
+	}
+}
@@ -0,0 +1,135 @@
+import connect4.benchmarks.EngineHooks;
+
+/**
+ * EngineBridge.java
+ *
+ * Gives the JMH benchmarks (in a named package) access to the engine
+ * (in the default package). See connect4.benchmarks.EngineHooks.
+ */
+
+public class EngineBridge implements EngineHooks {
+	private static final int TABLE_BITS = 18; // small enough to clear before every search
+
+	private Connect4BitBoard bitBoard;
+	private Connect4Game game;
+
+	private Connect4TranspositionTable table = new Connect4TranspositionTable(TABLE_BITS,
+			Connect4TranspositionTable.Replacement.DEPTH_PREFERRED);
+	private ComputerConnect4Player player;
+
+	@Override
+	public void setPosition(String moves){
+		setPosition(moves, Connect4BoardSize.STANDARD.toString());
+	}
+
+	@Override
+	public void setPosition(String moves, String size){
+		game = Connect4Game.fromMoves(moves, new Player[2], Connect4BoardSize.parse(size));
+		bitBoard = new Connect4BitBoard(game);
+
+		if (bitBoard.gameIsOver()){
+			throw new IllegalArgumentException("The game is already over after " + moves);
+		}
+	}
+
+	@Override
+	public int makeUndoBitBoard(){
+		int sum = 0;
+		int eval = bitBoard.grabEvalValue();
+
+		for (int col = 0; col < game.getSize().getColumns(); col++){
+			if (bitBoard.isValidMove(col)){
+				bitBoard.makeMove(col);
+				sum += bitBoard.grabEvalValue();
+				bitBoard.undoMove(col, eval);
+			}
+		}
+
+		return sum;
+	}
+
+	@Override
+	public int makeUndoArray(){
+		int sum = 0;
+		int eval = game.grabEvalValue();
+
+		for (int col = 0; col < game.getSize().getColumns(); col++){
+			if (game.isValidMove(col)){
+				game.makeMove(col);
+				sum += game.grabEvalValue();
+				game.undoMove(col, eval);
+			}
+		}
+
+		return sum;
+	}
+
+	@Override
+	public int incrementalEvaluation(){
+		// the same work as makeUndoBitBoard: the evaluation comes with the move
+		return makeUndoBitBoard();
+	}
+
+	@Override
+	public int fullEvaluation(){
+		int sum = 0;
+		int eval = bitBoard.grabEvalValue();
+
+		for (int col = 0; col < game.getSize().getColumns(); col++){
+			if (bitBoard.isValidMove(col)){
+				bitBoard.makeMove(col);
+				sum += ComputerConnect4Player.evaluate(bitBoard);
+				bitBoard.undoMove(col, eval);
+			}
+		}
+
+		return sum;
+	}
+
+	@Override
+	public int gameIsOverBitBoard(){
+		int over = 0;
+		int eval = bitBoard.grabEvalValue();
+
+		for (int col = 0; col < game.getSize().getColumns(); col++){
+			if (bitBoard.isValidMove(col)){
+				bitBoard.makeMove(col);
+				if (bitBoard.gameIsOver()){
+					over++;
+				}
+				bitBoard.undoMove(col, eval);
+			}
+		}
+
+		return over;
+	}
+
+	@Override
+	public int gameIsOverArray(){
+		int over = 0;
+		int eval = game.grabEvalValue();
+
+		for (int col = 0; col < game.getSize().getColumns(); col++){
+			if (game.isValidMove(col)){
+				game.makeMove(col);
+				if (game.gameIsOver()){
+					over++;
+				}
+				game.undoMove(col, eval);
+			}
+		}
+
+		return over;
+	}
+
+	@Override
+	public void resetSearch(int depth){
+		table.clear();
+		player = new ComputerConnect4Player("benchmark", depth, table);
+	}
+
+	@Override
+	public long search(int depth){
+		return player.search(bitBoard, depth);
+	}
+}
@@ -0,0 +1,183 @@
+package connect4.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EngineBenchmarks.java
+ *
+ * Benchmarks of the move generator, the evaluation and the search on fixed
+ * opening, middlegame and endgame positions. Each of the move benchmarks
+ * makes and undoes every legal move of the position once. The board size
+ * benchmarks run the bitboard and the search on the same opening on 7x6,
+ * 8x7 (one long) and 9x7, 10x8 (two longs).
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmarks {
+	/**
+	 * Gets the moves leading to a named position
+	 * @param phase opening, middlegame or endgame
+	 * @return one digit per move
+	 */
+	static String movesFor(String phase){
+		switch (phase){
+		case "opening":
+			return "3342";
+		case "middlegame":
+			return "133105661310423045";
+		case "endgame":
+			return "606512166606011054335522231132";
+		default:
+			throw new IllegalArgumentException("Unknown position " + phase);
+		}
+	}
+
+	/**
+	 * Loads the engine bridge from the default package
+	 * @return the bridge
+	 */
+	static EngineHooks loadEngine(){
+		try {
+			return (EngineHooks) Class.forName("EngineBridge").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e){
+			throw new IllegalStateException("The engine classes are not on the class path", e);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Position {
+		@Param({"opening", "middlegame", "endgame"})
+		public String position;
+
+		EngineHooks engine;
+
+		@Setup(Level.Trial)
+		public void setUp(){
+			engine = loadEngine();
+			engine.setPosition(movesFor(position));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Search {
+		@Param({"opening", "middlegame", "endgame"})
+		public String position;
+
+		@Param({"4", "6", "8", "10"})
+		public int depth;
+
+		EngineHooks engine;
+
+		@Setup(Level.Trial)
+		public void setUp(){
+			engine = loadEngine();
+			engine.setPosition(movesFor(position));
+		}
+
+		// every search starts cold, so the table can't answer it from the last one
+		@Setup(Level.Invocation)
+		public void resetSearch(){
+			engine.resetSearch(depth);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Sized {
+		@Param({"7x6", "8x7", "9x7", "10x8"})
+		public String size;
+
+		EngineHooks engine;
+
+		@Setup(Level.Trial)
+		public void setUp(){
+			engine = loadEngine();
+			engine.setPosition(movesFor("opening"), size);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class SizedSearch {
+		@Param({"7x6", "8x7", "9x7", "10x8"})
+		public String size;
+
+		@Param({"8"})
+		public int depth;
+
+		EngineHooks engine;
+
+		@Setup(Level.Trial)
+		public void setUp(){
+			engine = loadEngine();
+			engine.setPosition(movesFor("opening"), size);
+		}
+
+		@Setup(Level.Invocation)
+		public void resetSearch(){
+			engine.resetSearch(depth);
+		}
+	}
+
+	@Benchmark
+	public int makeUndoBitBoard(Position state){
+		return state.engine.makeUndoBitBoard();
+	}
+
+	@Benchmark
+	public int makeUndoArray(Position state){
+		return state.engine.makeUndoArray();
+	}
+
+	@Benchmark
+	public int incrementalEvaluation(Position state){
+		return state.engine.incrementalEvaluation();
+	}
+
+	@Benchmark
+	public int fullEvaluation(Position state){
+		return state.engine.fullEvaluation();
+	}
+
+	@Benchmark
+	public int gameIsOverBitBoard(Position state){
+		return state.engine.gameIsOverBitBoard();
+	}
+
+	@Benchmark
+	public int gameIsOverArray(Position state){
+		return state.engine.gameIsOverArray();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long pickMove(Search state){
+		return state.engine.search(state.depth);
+	}
+
+	@Benchmark
+	public int makeUndoBySize(Sized state){
+		return state.engine.makeUndoBitBoard();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long pickMoveBySize(SizedSearch state){
+		return state.engine.search(state.depth);
+	}
+}
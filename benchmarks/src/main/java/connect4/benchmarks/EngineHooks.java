@@ -0,0 +1,79 @@
+package connect4.benchmarks;
+
+/**
+ * EngineHooks.java
+ *
+ * The engine operations the benchmarks measure.
+ *
+ * The engine classes are in the default package, which code in a named
+ * package can't import, and JMH only accepts benchmarks in a named package.
+ * So the benchmarks call the engine through this interface, implemented by
+ * EngineBridge in the default package and loaded by name once per trial.
+ * Only that one call is reflective; the measured calls are plain interface
+ * calls that the JIT inlines.
+ */
+
+public interface EngineHooks {
+	/**
+	 * Set up the position after a sequence of moves
+	 * @param moves one digit per move (e.g. "3342")
+	 */
+	void setPosition(String moves);
+
+	/**
+	 * Set up the position after a sequence of moves on a board of any size
+	 * @param moves one digit per move
+	 * @param size columns x rows, e.g. "9x7"
+	 */
+	void setPosition(String moves, String size);
+
+	/**
+	 * Make and undo every legal move on the bitboard
+	 * @return the evaluations seen, so the work can't be optimized away
+	 */
+	int makeUndoBitBoard();
+
+	/**
+	 * Make and undo every legal move on the char[][] board
+	 * @return the evaluations seen
+	 */
+	int makeUndoArray();
+
+	/**
+	 * Evaluate the position after each legal move with the incremental
+	 * evaluation kept by makeMove
+	 * @return the evaluations seen
+	 */
+	int incrementalEvaluation();
+
+	/**
+	 * Evaluate the position after each legal move by scanning the whole board
+	 * @return the evaluations seen
+	 */
+	int fullEvaluation();
+
+	/**
+	 * Check for the end of the game after each legal move on the bitboard
+	 * @return how many moves ended the game
+	 */
+	int gameIsOverBitBoard();
+
+	/**
+	 * Check for the end of the game after each legal move on the char[][] board
+	 * @return how many moves ended the game
+	 */
+	int gameIsOverArray();
+
+	/**
+	 * Start the next search from nothing: empty table, new player
+	 * @param depth the depth the next search will use
+	 */
+	void resetSearch(int depth);
+
+	/**
+	 * Search the position
+	 * @param depth the number of moves to look ahead
+	 * @return the packed (value, move) result
+	 */
+	long search(int depth);
+}
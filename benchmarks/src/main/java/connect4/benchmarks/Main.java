@@ -0,0 +1,58 @@
+package connect4.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main.java
+ *
+ * Runs the benchmarks with the usual JMH command line, but writes the
+ * results as JSON (to jmh-result.json) unless -rf / -rff say otherwise.
+ * As in org.openjdk.jmh.Main, -h, -l, -lp, -lprof and -lrf print the help
+ * or what they list instead of running anything.
+ */
+
+public class Main {
+	public static void main(String[] args) throws RunnerException, IOException {
+		CommandLineOptions options;
+		try {
+			options = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e){
+			System.err.println("Error parsing command line: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+
+		if (!options.getResultFormat().hasValue()){
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!options.getResult().hasValue()){
+			builder.result("jmh-result.json");
+		}
+
+		Runner runner = new Runner(builder.build());
+
+		if (options.shouldHelp()){
+			options.showHelp();
+		} else if (options.shouldList()){
+			runner.list();
+		} else if (options.shouldListWithParams()){
+			runner.listWithParams(options);
+		} else if (options.shouldListProfilers()){
+			options.listProfilers();
+		} else if (options.shouldListResultFormats()){
+			options.listResultFormats();
+		} else {
+			runner.run();
+		}
+	}
+}